@@ -0,0 +1,205 @@
+package scheduler.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.Scheduler;
+import scheduler.db.ConnectionManager;
+import scheduler.model.Appointment.AppointmentReserver;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+// The Appointments access paths against tables of growing size, using the queries show_appointments
+// and reserve run. Users scale with the table so every lookup touches the same number of rows (a
+// page of 10 out of 10 per patient and 100 per caregiver, 10 caregivers available on a date);
+// setup checks that every lookup seeks its index, and that pages come off it already sorted,
+// and fails the run if not, so the scores should stay flat across sizes.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dscheduler.backend=h2:mem:lookup")
+@State(Scope.Benchmark)
+public class AppointmentLookupBenchmark {
+
+    private static final int APPOINTMENTS_PER_PATIENT = 10;
+    private static final int APPOINTMENTS_PER_CAREGIVER = 100;
+    private static final LocalDate FIRST_DAY = LocalDate.of(2030, 1, 1);
+
+    // show_appointments pages with setMaxRows as well
+    private static final int PAGE_SIZE = 10;
+    private static final int AVAILABLE_DAYS = 10;
+    private static final int AVAILABLE_PER_DAY = 10;
+
+    private static final String PATIENT_PAGE = Scheduler.appointmentPage(true, false, false);
+    private static final String CAREGIVER_PAGE = Scheduler.appointmentPage(false, false, false);
+    private static final String CAREGIVER_RANGE_PAGE = Scheduler.appointmentPage(false, true, true);
+
+    @Param({"1000", "10000", "100000"})
+    public int appointments;
+
+    private int caregivers;
+    private int patients;
+    private int next = 0;
+
+    @Setup
+    public void setUp() throws SQLException {
+        caregivers = appointments / APPOINTMENTS_PER_CAREGIVER;
+        patients = appointments / APPOINTMENTS_PER_PATIENT;
+
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            seed(con, "INSERT INTO Caregivers VALUES (?, NULL, NULL)", caregivers, "caregiver");
+            seed(con, "INSERT INTO Patients VALUES (?, NULL, NULL)", patients, "patient");
+            try (PreparedStatement statement = con.prepareStatement("INSERT INTO Vaccines VALUES ('bench', 0)")) {
+                statement.executeUpdate();
+            }
+            // a few caregivers are available on each of the days before the first appointment
+            try (PreparedStatement statement = con.prepareStatement("INSERT INTO Availabilities VALUES (?, ?)")) {
+                for (int d = 0; d < AVAILABLE_DAYS; d++) {
+                    for (int c = 0; c < AVAILABLE_PER_DAY; c++) {
+                        statement.setDate(1, Date.valueOf(FIRST_DAY.minusDays(d + 1)));
+                        statement.setString(2, "caregiver" + (d * AVAILABLE_PER_DAY + c) % caregivers);
+                        statement.addBatch();
+                    }
+                }
+                statement.executeBatch();
+            }
+            String addAppointment = "INSERT INTO Appointments (Time, c_username, p_username, v_name) VALUES (?, ?, ?, 'bench')";
+            try (PreparedStatement statement = con.prepareStatement(addAppointment)) {
+                for (int i = 0; i < appointments; i++) {
+                    // every caregiver sees one patient a day
+                    statement.setDate(1, Date.valueOf(FIRST_DAY.plusDays(i / caregivers)));
+                    statement.setString(2, "caregiver" + (i % caregivers));
+                    statement.setString(3, "patient" + (i % patients));
+                    statement.addBatch();
+                    if (i % 1000 == 999) {
+                        statement.executeBatch();
+                    }
+                }
+                statement.executeBatch();
+            }
+            con.commit();
+
+            checkPlan(con, PATIENT_PAGE, patientPage(0), "IX_APPOINTMENTS_PATIENT", true);
+            checkPlan(con, CAREGIVER_PAGE, caregiverPage(0), "IX_APPOINTMENTS_CAREGIVER_ID", true);
+            checkPlan(con, CAREGIVER_RANGE_PAGE, caregiverRangePage(0), "IX_APPOINTMENTS_CAREGIVER_ID", true);
+            checkPlan(con, AppointmentReserver.SELECT_CAREGIVERS, availableOn(0), "IX_APPOINTMENTS_CAREGIVER", false);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Benchmark
+    public int patientPage() throws SQLException {
+        return count(PATIENT_PAGE, PAGE_SIZE, patientPage(next++));
+    }
+
+    // a page from the middle of a caregiver's history
+    @Benchmark
+    public int caregiverPage() throws SQLException {
+        return count(CAREGIVER_PAGE, PAGE_SIZE, caregiverPage(next++));
+    }
+
+    @Benchmark
+    public int caregiverRangePage() throws SQLException {
+        return count(CAREGIVER_RANGE_PAGE, PAGE_SIZE, caregiverRangePage(next++));
+    }
+
+    @Benchmark
+    public int availableCaregivers() throws SQLException {
+        return count(AppointmentReserver.SELECT_CAREGIVERS, 0, availableOn(next++));
+    }
+
+    private Binder patientPage(int i) {
+        return statement -> {
+            statement.setString(1, "patient" + (i % patients));
+            statement.setInt(2, 0);
+        };
+    }
+
+    private Binder caregiverPage(int i) {
+        // IDs are assigned round-robin over caregivers, so this skips half of the caregiver's rows
+        return statement -> {
+            statement.setString(1, "caregiver" + (i % caregivers));
+            statement.setInt(2, appointments / 2);
+        };
+    }
+
+    private Binder caregiverRangePage(int i) {
+        return statement -> {
+            statement.setString(1, "caregiver" + (i % caregivers));
+            statement.setInt(2, 0);
+            statement.setDate(3, Date.valueOf(FIRST_DAY.plusDays(APPOINTMENTS_PER_CAREGIVER / 4)));
+            statement.setDate(4, Date.valueOf(FIRST_DAY.plusDays(APPOINTMENTS_PER_CAREGIVER * 3 / 4)));
+        };
+    }
+
+    private static Binder availableOn(int i) {
+        return statement -> statement.setDate(1, Date.valueOf(FIRST_DAY.minusDays(i % AVAILABLE_DAYS + 1)));
+    }
+
+    private static int count(String query, int maxRows, Binder binder) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        try {
+            PreparedStatement statement = cm.prepareStatement(query);
+            binder.bind(statement);
+            statement.setMaxRows(maxRows);
+            int rows = 0;
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    rows++;
+                }
+            }
+            return rows;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static void seed(Connection con, String insert, int count, String prefix) throws SQLException {
+        try (PreparedStatement statement = con.prepareStatement(insert)) {
+            for (int i = 0; i < count; i++) {
+                statement.setString(1, prefix + i);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    // the benchmark always runs on the embedded H2 backend, whose EXPLAIN names the index it
+    // uses and says "index sorted" when the rows come off it in ORDER BY order
+    private static void checkPlan(Connection con, String query, Binder binder, String index, boolean sorted)
+            throws SQLException {
+        try (PreparedStatement statement = con.prepareStatement("EXPLAIN " + query)) {
+            binder.bind(statement);
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            String plan = resultSet.getString(1).toUpperCase();
+            if (!plan.contains("PUBLIC." + index + ":") || (sorted && !plan.contains("INDEX SORTED"))) {
+                throw new IllegalStateException("Expected " + index + (sorted ? ", sorted," : "") +
+                                                " in the plan for " + query + " but got:\n" + plan);
+            }
+        }
+    }
+
+    private interface Binder {
+        void bind(PreparedStatement statement) throws SQLException;
+    }
+}
@@ -0,0 +1,108 @@
+package scheduler.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.Scheduler;
+import scheduler.model.Caregiver;
+import scheduler.util.Util;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// End-to-end command flows, exactly as typed at the prompt, against the embedded in-memory database
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dscheduler.backend=h2:mem:bench")
+@State(Scope.Benchmark)
+public class CommandBenchmark {
+
+    private static final int CAREGIVERS = 20;
+    private static final int SEEDED_APPOINTMENTS = 100;
+    private static final String SEARCH_DATE = "2030-01-01";
+
+    // a session whose output is thrown away, so the numbers measure the command and not the terminal
+    private final Scheduler session = new Scheduler(new PrintStream(OutputStream.nullOutputStream()));
+    private final List<Caregiver> caregivers = new ArrayList<>();
+    private final AtomicLong nextDay = new AtomicLong(LocalDate.of(2031, 1, 1).toEpochDay());
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        for (int i = 0; i < CAREGIVERS; i++) {
+            byte[] salt = Util.generateSalt();
+            Caregiver caregiver = new Caregiver.CaregiverBuilder("caregiver" + i, salt, Util.generateHash("pw", salt)).build();
+            caregiver.saveToDB();
+            caregiver.uploadAvailability(Date.valueOf(SEARCH_DATE));
+            caregivers.add(caregiver);
+        }
+        run("login_caregiver caregiver0 pw");
+        run("add_doses bench " + (Integer.MAX_VALUE / 2));
+        run("logout");
+
+        run("create_patient patient pw");
+        run("login_patient patient pw");
+        // give show_appointments some history to print
+        for (int i = 0; i < SEEDED_APPOINTMENTS; i++) {
+            run(nextReservation());
+        }
+    }
+
+    // Uploads an availability for a new date and returns the command that books it
+    String[] nextReservation() throws SQLException {
+        long day = nextDay.getAndIncrement();
+        Date d = Date.valueOf(LocalDate.ofEpochDay(day));
+        caregivers.get((int) (day % CAREGIVERS)).uploadAvailability(d);
+        return new String[]{"reserve", d.toString(), "bench"};
+    }
+
+    // reserve consumes an availability, so a fresh one is put in place before every call
+    @State(Scope.Thread)
+    public static class Reservation {
+        String[] tokens;
+
+        @Setup(Level.Invocation)
+        public void setUp(CommandBenchmark benchmark) throws SQLException {
+            tokens = benchmark.nextReservation();
+        }
+    }
+
+    @Benchmark
+    public boolean reserve(Reservation reservation) {
+        return run(reservation.tokens);
+    }
+
+    @Benchmark
+    public boolean searchCaregiverSchedule() {
+        return run("search_caregiver_schedule " + SEARCH_DATE);
+    }
+
+    @Benchmark
+    public boolean showAppointments() {
+        return run("show_appointments");
+    }
+
+    private boolean run(String command) {
+        return session.runCommand(command.split(" "));
+    }
+
+    private boolean run(String[] tokens) {
+        return session.runCommand(tokens);
+    }
+}
@@ -0,0 +1,184 @@
+package scheduler.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.db.ConnectionManager;
+import scheduler.model.Appointment;
+import scheduler.model.Appointment.AppointmentReserver;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Hundreds of threads reserving at once, through the same AppointmentReserver transaction as the
+// reserve command: every date has as many reservers as caregivers, so they race for the same
+// availabilities as well as for the doses of one vaccine. Every iteration starts from a known
+// dose count and checks at the end that the table lost exactly the doses of the appointments
+// that were made, that no caregiver was booked twice on a date, and for the scarce vaccine that
+// no more appointments were made than there were doses.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(256)
+@Fork(value = 1, jvmArgsAppend = "-Dscheduler.backend=h2:mem:doses")
+public class DoseContentionBenchmark {
+
+    private static final int PLENTY = 1_000_000_000;
+    private static final int SCARCE = 500;
+    private static final int CAREGIVERS = 64;
+    // CAREGIVERS * DAYS availabilities, more than a run books
+    private static final int DAYS = 4000;
+    private static final LocalDate FIRST_DAY = LocalDate.of(2030, 1, 1);
+
+    @State(Scope.Benchmark)
+    public static class Reservations {
+        private final AtomicLong taken = new AtomicLong();
+        private final AtomicLong unserved = new AtomicLong();
+        // the next reservation, on date next / CAREGIVERS
+        private final AtomicLong next = new AtomicLong();
+        private long bookedBefore;
+
+        // availabilities are seeded once for the whole run: all the other threads spin while
+        // one of them sets up an iteration
+        @Setup(Level.Trial)
+        public void create() throws SQLException {
+            ConnectionManager cm = new ConnectionManager();
+            Connection con = cm.createConnection();
+            try {
+                con.setAutoCommit(false);
+                try (PreparedStatement statement = con.prepareStatement("INSERT INTO Caregivers VALUES (?, NULL, NULL)")) {
+                    for (int c = 0; c < CAREGIVERS; c++) {
+                        statement.setString(1, "caregiver" + c);
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
+                execute(con, "INSERT INTO Patients VALUES ('patient', NULL, NULL)");
+                execute(con, "INSERT INTO Vaccines VALUES ('plenty', 0)");
+                execute(con, "INSERT INTO Vaccines VALUES ('scarce', 0)");
+                try (PreparedStatement statement = con.prepareStatement("INSERT INTO Availabilities VALUES (?, ?)")) {
+                    for (int d = 0; d < DAYS; d++) {
+                        for (int c = 0; c < CAREGIVERS; c++) {
+                            statement.setDate(1, Date.valueOf(FIRST_DAY.plusDays(d)));
+                            statement.setString(2, "caregiver" + c);
+                            statement.addBatch();
+                        }
+                        statement.executeBatch();
+                    }
+                }
+                con.commit();
+            } finally {
+                cm.closeConnection();
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void refill() throws SQLException {
+            setDoses("plenty", PLENTY);
+            setDoses("scarce", SCARCE);
+            bookedBefore = count("SELECT COUNT(*) FROM Appointments");
+            // start on a date no reservation has touched yet
+            next.set((next.get() + CAREGIVERS - 1) / CAREGIVERS * CAREGIVERS);
+            taken.set(0);
+            unserved.set(0);
+        }
+
+        @TearDown(Level.Iteration)
+        public void check() throws SQLException {
+            long left = count("SELECT SUM(Doses) FROM Vaccines");
+            long handedOut = PLENTY + SCARCE - left;
+            long booked = count("SELECT COUNT(*) FROM Appointments") - bookedBefore;
+            if (handedOut != taken.get() || booked != taken.get()) {
+                throw new IllegalStateException("Made " + taken.get() + " appointments but the table has " + booked +
+                                                " and lost " + handedOut + " doses");
+            }
+            if (count("SELECT MIN(Doses) FROM Vaccines") < 0) {
+                throw new IllegalStateException("Handed out more doses than there were");
+            }
+            long doubleBooked = count("SELECT COUNT(*) FROM (SELECT Time, c_username FROM Appointments " +
+                                      "GROUP BY Time, c_username HAVING COUNT(*) > 1) D");
+            if (doubleBooked != 0) {
+                throw new IllegalStateException(doubleBooked + " caregivers were booked twice on a date");
+            }
+            // a reservation that found no caregiver although its date had one for every reserver,
+            // or that ran past the seeded dates
+            if (unserved.get() != 0) {
+                throw new IllegalStateException(unserved.get() + " reservations found no caregiver");
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean reservePlenty(Reservations reservations) throws SQLException {
+        return reserve(reservations, "plenty");
+    }
+
+    // mostly refused once the 500 doses are gone, which is the path that must not oversell
+    @Benchmark
+    public boolean reserveScarce(Reservations reservations) throws SQLException {
+        return reserve(reservations, "scarce");
+    }
+
+    private static boolean reserve(Reservations reservations, String vaccine) throws SQLException {
+        Date d = Date.valueOf(FIRST_DAY.plusDays(reservations.next.getAndIncrement() / CAREGIVERS));
+        try {
+            Appointment appointment = new AppointmentReserver(d, "patient", vaccine).reserve();
+            if (appointment == null) {
+                reservations.unserved.incrementAndGet();
+                return false;
+            }
+            reservations.taken.incrementAndGet();
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static void execute(Connection con, String sql) throws SQLException {
+        try (PreparedStatement statement = con.prepareStatement(sql)) {
+            statement.executeUpdate();
+        }
+    }
+
+    private static void setDoses(String name, int count) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        try {
+            PreparedStatement statement = cm.prepareStatement("UPDATE Vaccines SET Doses = ? WHERE Name = ?");
+            statement.setInt(1, count);
+            statement.setString(2, name);
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static long count(String sql) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        try {
+            PreparedStatement statement = cm.prepareStatement(sql);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package scheduler.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.model.Caregiver;
+import scheduler.model.Vaccine;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Model persistence against the embedded in-memory database
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dscheduler.backend=h2:mem:bench")
+@State(Scope.Benchmark)
+public class ModelBenchmark {
+
+    private Caregiver caregiver;
+    // every upload needs a date the caregiver has not uploaded yet
+    private final AtomicLong nextDay = new AtomicLong(LocalDate.of(2000, 1, 1).toEpochDay());
+
+    @Setup
+    public void setUp() throws SQLException {
+        new Vaccine.VaccineBuilder("bench", 1000).build().saveToDB();
+        byte[] salt = Util.generateSalt();
+        caregiver = new Caregiver.CaregiverBuilder("bench_caregiver", salt, Util.generateHash("password", salt)).build();
+        caregiver.saveToDB();
+    }
+
+    @Benchmark
+    public Vaccine vaccineGetterGet() throws SQLException {
+        return new Vaccine.VaccineGetter("bench").get();
+    }
+
+    @Benchmark
+    public void caregiverUploadAvailability() throws SQLException {
+        caregiver.uploadAvailability(Date.valueOf(LocalDate.ofEpochDay(nextDay.getAndIncrement())));
+    }
+}
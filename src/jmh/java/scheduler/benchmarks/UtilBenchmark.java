@@ -0,0 +1,59 @@
+package scheduler.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.util.CredentialService;
+import scheduler.util.Util;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UtilBenchmark {
+
+    private byte[] salt;
+    private byte[] paddedHash;
+
+    @Setup
+    public void setUp() {
+        salt = Util.generateSalt();
+        // a 16 byte hash with trailing zero padding, the way BINARY(16) hands it back
+        paddedHash = Arrays.copyOf(Util.trim(Util.generateHash("password", salt)), 16);
+    }
+
+    @Benchmark
+    public byte[] generateHash() {
+        return Util.generateHash("password", salt);
+    }
+
+    // a login storm: every hardware thread verifying a password at once
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean credentialServiceVerify() {
+        return CredentialService.getInstance().verify("password", salt, paddedHash);
+    }
+
+    @Benchmark
+    public byte[] generateSalt() {
+        return Util.generateSalt();
+    }
+
+    @Benchmark
+    public byte[] trim() {
+        return Util.trim(paddedHash);
+    }
+}
@@ -0,0 +1,7 @@
+-- show_appointments for a patient: WHERE p_username = ?
+-- the remaining columns make the index covering, so the lookup never touches the table
+CREATE INDEX IX_Appointments_Patient ON Appointments (p_username, Appointment_ID, Time, v_name, c_username);
+
+-- show_appointments for a caregiver: WHERE c_username = ?
+-- and the availability check in reserve: WHERE Time = ? AND c_username = ?
+CREATE INDEX IX_Appointments_Caregiver ON Appointments (c_username, Time, Appointment_ID, v_name, p_username);
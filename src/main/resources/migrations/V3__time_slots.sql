@@ -0,0 +1,21 @@
+-- 15-minute slots per caregiver per day as a bitmap, a set bit is a free slot.
+-- Slots 0-47 (00:00-11:45) are in Slots_Low and 48-95 (12:00-23:45) in Slots_High. Keeping
+-- every column below 2^48 lets a claim test and clear its bit with plain arithmetic:
+--   UPDATE ... SET Slots_Low = Slots_Low - 2^k WHERE ... AND (Slots_Low / 2^k) % 2 = 1
+CREATE TABLE SlotAvailabilities (
+    Time date,
+    Username varchar(255) REFERENCES Caregivers,
+    Slots_Low bigint NOT NULL,
+    Slots_High bigint NOT NULL,
+    PRIMARY KEY (Time, Username)
+);
+
+-- the slot an appointment was booked for, NULL for whole-day appointments
+ALTER TABLE Appointments ADD Slot int;
+
+-- keep the show_appointments indexes covering now that it also reads Slot
+DROP INDEX IX_Appointments_Patient ON Appointments;
+CREATE INDEX IX_Appointments_Patient ON Appointments (p_username, Appointment_ID, Time, v_name, c_username, Slot);
+
+DROP INDEX IX_Appointments_Caregiver ON Appointments;
+CREATE INDEX IX_Appointments_Caregiver ON Appointments (c_username, Time, Appointment_ID, v_name, p_username, Slot);
@@ -0,0 +1,16 @@
+-- patients waiting for a caregiver or doses on a date, served in Waitlist_ID order
+CREATE TABLE Waitlist (
+    Waitlist_ID INT IDENTITY (1,1) PRIMARY KEY,
+    Time date NOT NULL,
+    p_username varchar(255) NOT NULL REFERENCES Patients (Username),
+    v_name varchar(255) NOT NULL,
+    Created_On datetime,
+    -- a patient waits at most once per date
+    CONSTRAINT UQ_Waitlist_Patient UNIQUE (Time, p_username)
+);
+
+-- the matcher: the next entries for a date, in order
+CREATE INDEX IX_Waitlist_Time ON Waitlist (Time, Waitlist_ID, p_username, v_name);
+
+-- the matcher after doses were added: the dates anyone is waiting for the vaccine on
+CREATE INDEX IX_Waitlist_Vaccine ON Waitlist (v_name, Time);
@@ -0,0 +1,5 @@
+-- show_appointments for a caregiver: WHERE c_username = ? AND Appointment_ID > ? ORDER BY Appointment_ID
+-- IX_Appointments_Caregiver leads with Time for the availability check in reserve, so a page
+-- had to read and sort every appointment of the caregiver. Keyed by ID a page is a seek past
+-- the cursor and a scan of the next rows, covering the columns the page prints
+CREATE INDEX IX_Appointments_Caregiver_ID ON Appointments (c_username, Appointment_ID) INCLUDE (v_name, Time, Slot, p_username);
@@ -0,0 +1,99 @@
+package scheduler;
+
+import scheduler.util.Util;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Runs a script of commands without prompts or the list of commands, for use from automation.
+//
+// Commands that change something run one at a time on the session, in order. Read-only
+// commands run on a fork of the session, several at once (at most BatchParallelism), each
+// writing to its own buffer; buffers are copied to the output in the order the commands were
+// read. Every write waits for the reads before it and every read starts after the writes
+// before it, so the output is exactly what running the script line by line would print.
+// A line that fails is reported in its place and the script goes on, like in the terminal.
+public class BatchRunner {
+
+    private final Scheduler session;
+    private final PrintStream out;
+    private final int parallelism;
+    private final Deque<Future<ByteArrayOutputStream>> reads = new ArrayDeque<>();
+
+    public BatchRunner(PrintStream out) {
+        this(out, Util.intSetting("BatchParallelism", 8));
+    }
+
+    public BatchRunner(PrintStream out, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive!");
+        }
+        this.session = new Scheduler(out, false);
+        this.out = out;
+        this.parallelism = parallelism;
+    }
+
+    // Runs commands until the script ends or quits; blank lines and lines starting with # are skipped
+    public void run(BufferedReader r) throws IOException {
+        try (ExecutorService readers = Executors.newVirtualThreadPerTaskExecutor()) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                String[] tokens = Scheduler.tokenize(line);
+                if (tokens.length == 0 || tokens[0].startsWith("#")) {
+                    continue;
+                }
+                if (Scheduler.isReadOnly(tokens[0])) {
+                    if (reads.size() >= parallelism) {
+                        writeNext();
+                    }
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+                    PrintStream forkOut = new PrintStream(buffer, false, StandardCharsets.UTF_8);
+                    Scheduler fork = session.fork(forkOut);
+                    reads.addLast(readers.submit(() -> {
+                        fork.runCommand(tokens);
+                        forkOut.flush();
+                        return buffer;
+                    }));
+                    continue;
+                }
+                writeAll();
+                if (!session.runCommand(tokens)) {
+                    break;
+                }
+            }
+            writeAll();
+        } finally {
+            out.flush();
+        }
+    }
+
+    private void writeAll() throws IOException {
+        while (!reads.isEmpty()) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        Future<ByteArrayOutputStream> next = reads.removeFirst();
+        try {
+            next.get().writeTo(out);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a command");
+        } catch (ExecutionException e) {
+            // runCommand reports failures itself, so this is one it could not catch
+            out.println("Please try again");
+            e.getCause().printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package scheduler;
+
+import scheduler.db.ConnectionPool;
+import scheduler.metrics.LatencyHistogram;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Replays command scripts across many simulated users to measure throughput and latency.
+//
+//   java -cp ... scheduler.LoadGenerator [--users N] [--rate R] [--repeat K] [--think MS]
+//                                        [--backend SPEC] script...
+//
+// Every user is its own Scheduler session on its own virtual thread, running the real command
+// code against the shared connection pool. User i replays script i % scripts.length, with
+// {user} replaced by a name unique to that user (so create_patient {user} pw works for all of
+// them), K times over. Users arrive R per second (all at once when R is 0) and wait MS between
+// commands. A command counts as an error when its first line of output is one of the failure
+// messages below, or when it throws.
+public class LoadGenerator {
+
+    private static final String USER_PLACEHOLDER = "{user}";
+    private static final List<String> FAILURE_PREFIXES = List.of(
+            "Please", "Login", "Error", "Failed", "Create patient failed", "Username taken",
+            "User already", "Invalid", "Not enough", "No caregiver", "Could not");
+
+    private final int users;
+    private final double arrivalsPerSecond;
+    private final int repeat;
+    private final long thinkMillis;
+    private final List<List<String>> scripts;
+
+    private final Map<String, CommandResult> results = new ConcurrentHashMap<>();
+
+    public LoadGenerator(int users, double arrivalsPerSecond, int repeat, long thinkMillis, List<List<String>> scripts) {
+        if (users <= 0 || repeat <= 0 || arrivalsPerSecond < 0 || thinkMillis < 0 || scripts.isEmpty()) {
+            throw new IllegalArgumentException("Invalid load settings!");
+        }
+        this.users = users;
+        this.arrivalsPerSecond = arrivalsPerSecond;
+        this.repeat = repeat;
+        this.thinkMillis = thinkMillis;
+        this.scripts = scripts;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int users = 10;
+        double rate = 0;
+        int repeat = 1;
+        long think = 0;
+        List<List<String>> scripts = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--users" -> users = Integer.parseInt(args[++i]);
+                case "--rate" -> rate = Double.parseDouble(args[++i]);
+                case "--repeat" -> repeat = Integer.parseInt(args[++i]);
+                case "--think" -> think = Long.parseLong(args[++i]);
+                // must be set before anything touches the connection pool
+                case "--backend" -> System.setProperty("scheduler.backend", args[++i]);
+                default -> scripts.add(readScript(args[i]));
+            }
+        }
+        if (scripts.isEmpty()) {
+            System.out.println("Usage: LoadGenerator [--users N] [--rate R] [--repeat K] [--think MS] " +
+                               "[--backend SPEC] script...");
+            return;
+        }
+
+        ConnectionPool.getInstance();
+        new LoadGenerator(users, rate, repeat, think, scripts).run().print(System.out);
+    }
+
+    // Runs every user to completion and returns what they measured
+    public Report run() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>(users);
+        long started = System.nanoTime();
+        for (int i = 0; i < users; i++) {
+            if (arrivalsPerSecond > 0) {
+                // open-loop arrivals: user i starts i / rate seconds in, however slow the others are
+                long due = started + (long) (i * 1_000_000_000L / arrivalsPerSecond);
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            }
+            String user = "load" + i;
+            List<String> script = scripts.get(i % scripts.size());
+            threads.add(Thread.ofVirtual().name("load-" + user).start(() -> replay(user, script)));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return new Report(new TreeMap<>(results), System.nanoTime() - started);
+    }
+
+    private void replay(String user, List<String> script) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        // non-interactive: no menu after logout, so the first line is the command's own
+        Scheduler session = new Scheduler(new PrintStream(buffer, false, StandardCharsets.UTF_8), false);
+        for (int round = 0; round < repeat; round++) {
+            for (String line : script) {
+                String[] tokens = Scheduler.tokenize(line.replace(USER_PLACEHOLDER, user));
+                buffer.reset();
+                long started = System.nanoTime();
+                boolean failed = false;
+                boolean more = true;
+                try {
+                    more = session.runCommand(tokens);
+                } catch (RuntimeException e) {
+                    failed = true;
+                }
+                long elapsed = System.nanoTime() - started;
+                failed |= isFailure(buffer.toString(StandardCharsets.UTF_8));
+                results.computeIfAbsent(tokens[0], CommandResult::new).record(elapsed, failed);
+                if (!more) {
+                    return;
+                }
+                if (thinkMillis > 0) {
+                    try {
+                        Thread.sleep(thinkMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isFailure(String output) {
+        int end = output.indexOf('\n');
+        String first = (end < 0 ? output : output.substring(0, end)).trim();
+        for (String prefix : FAILURE_PREFIXES) {
+            if (first.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Non-empty lines of a script; lines starting with # are comments
+    private static List<String> readScript(String file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(file))) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    public static class CommandResult {
+        private final String command;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+
+        private CommandResult(String command) {
+            this.command = command;
+        }
+
+        private void record(long nanos, boolean failed) {
+            latency.record(nanos);
+            if (failed) {
+                errors.increment();
+            }
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+    }
+
+    public static class Report {
+        private final Map<String, CommandResult> results;
+        private final long elapsedNanos;
+
+        private Report(Map<String, CommandResult> results, long elapsedNanos) {
+            this.results = results;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public Map<String, CommandResult> getResults() {
+            return results;
+        }
+
+        public long getCommands() {
+            long total = 0;
+            for (CommandResult result : results.values()) {
+                total += result.getLatency().getCount();
+            }
+            return total;
+        }
+
+        public double getThroughput() {
+            return getCommands() * 1e9 / Math.max(1, elapsedNanos);
+        }
+
+        public void print(PrintStream out) {
+            out.println(String.format("%d commands in %.2f s, %.1f commands/s",
+                    getCommands(), elapsedNanos / 1e9, getThroughput()));
+            out.println(String.format("%-26s %8s %8s %10s %10s %10s %10s",
+                    "command", "count", "errors", "p50(ms)", "p99(ms)", "p999(ms)", "max(ms)"));
+            for (CommandResult result : results.values()) {
+                LatencyHistogram latency = result.getLatency();
+                out.println(String.format("%-26s %8d %8d %10.2f %10.2f %10.2f %10.2f",
+                        result.getCommand(), latency.getCount(), result.getErrors(),
+                        latency.percentile(0.50) / 1e6, latency.percentile(0.99) / 1e6,
+                        latency.percentile(0.999) / 1e6, latency.getMaxNanos() / 1e6));
+            }
+        }
+    }
+}
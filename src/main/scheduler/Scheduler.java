@@ -1,101 +1,282 @@
 package scheduler;
 
+import scheduler.cache.AvailabilityCache;
+import scheduler.cache.SlotBitmap;
+import scheduler.cache.SessionTokens;
+import scheduler.cache.SlotCache;
+import scheduler.cache.VaccineInventory;
 import scheduler.db.ConnectionManager;
+import scheduler.db.QueryExecutor;
+import scheduler.db.ReadRouting;
+import scheduler.db.ShardRouter;
+import scheduler.metrics.CommandStats;
+import scheduler.metrics.Metrics;
+import scheduler.model.Appointment;
 import scheduler.model.Caregiver;
 import scheduler.model.Patient;
 import scheduler.model.Vaccine;
+import scheduler.model.WaitlistEntry;
+import scheduler.model.WaitlistMatcher;
+import scheduler.util.CredentialService;
 import scheduler.util.Util;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.sql.Connection;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Date;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 public class Scheduler {
 
-    // objects to keep track of the currently logged-in user
+    // objects to keep track of the user logged in to this session
     // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
     //       since only one user can be logged-in at a time
-    private static Caregiver currentCaregiver = null;
-    private static Patient currentPatient = null;
+    private Caregiver currentCaregiver = null;
+    private Patient currentPatient = null;
+    // the session token of the logged-in user, revoked at logout
+    private String sessionToken = null;
+
+    // where this session's output goes: the terminal, or a client socket in server mode
+    private final PrintStream out;
+    // batch sessions print neither the prompt nor the list of commands
+    private final boolean interactive;
+    // when this session last changed data, so that it reads its own writes
+    private ReadRouting.Session reads = new ReadRouting.Session();
+
+    private static final int MAX_AVAILABILITY_RANGE_DAYS = 366;
+    private static final int IMPORT_CHUNK_SIZE = 500;
+    private static final int MAX_REPORTED_IMPORT_ERRORS = 10;
+    private static final int APPOINTMENT_PAGE_SIZE = 100;
+    private static final int MAX_APPOINTMENT_PAGE_SIZE = 1000;
+    private static final int APPOINTMENT_FETCH_SIZE = 100;
+    private static final String PATIENT_APPOINTMENTS =
+            "SELECT Appointment_ID, v_name, Time, Slot, c_username FROM Appointments WHERE p_username = ?";
+    private static final String CAREGIVER_APPOINTMENTS =
+            "SELECT Appointment_ID, v_name, Time, Slot, p_username FROM Appointments WHERE c_username = ?";
+
+    public Scheduler(PrintStream out) {
+        this(out, true);
+    }
+
+    public Scheduler(PrintStream out, boolean interactive) {
+        this.out = out;
+        this.interactive = interactive;
+    }
+
+    // A non-interactive copy of this session, logged in as the same user, writing to out
+    public Scheduler fork(PrintStream out) {
+        Scheduler fork = new Scheduler(out, false);
+        fork.currentCaregiver = this.currentCaregiver;
+        fork.currentPatient = this.currentPatient;
+        fork.reads = this.reads;
+        return fork;
+    }
+
+    // Commands that neither change the database nor the session, so that several of them
+    // can run at once
+    public static boolean isReadOnly(String operation) {
+        return operation.equals("search_caregiver_schedule")
+                || operation.equals("search_slots")
+                || operation.equals("show_appointments")
+                || operation.equals("stats");
+    }
+
+    // Commands that may change the database; all others can read from replicas
+    public static boolean changesData(String operation) {
+        return !isReadOnly(operation)
+                && !operation.equals("login_patient")
+                && !operation.equals("login_caregiver")
+                && !operation.equals("resume")
+                && !operation.equals("logout")
+                && !operation.equals("quit");
+    }
+
+    // Splits a command line on runs of whitespace
+    public static String[] tokenize(String line) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        int n = line.length();
+        while (i < n) {
+            while (i < n && Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < n && !Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                tokens.add(line.substring(start, i));
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
 
     public static void main(String[] args) {
+        // scheduler --server [port] serves many sessions over TCP instead of this terminal
+        if (args.length > 0 && args[0].equals("--server")) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : SchedulerServer.DEFAULT_PORT;
+            try {
+                new SchedulerServer(port).serve();
+            } catch (IOException e) {
+                System.out.println("Could not start the server on port " + port);
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        // scheduler --script <file|-> runs a script without prompts, "-" reads it from stdin
+        if (args.length > 0 && args[0].equals("--script")) {
+            String script = args.length > 1 ? args[1] : "-";
+            PrintStream buffered = new PrintStream(
+                    new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16),
+                    false, StandardCharsets.UTF_8);
+            try (BufferedReader r = script.equals("-")
+                    ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                    : Files.newBufferedReader(Paths.get(script))) {
+                new BatchRunner(buffered).run(r);
+            } catch (IOException e) {
+                buffered.flush();
+                System.out.println("Could not read " + script);
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        new Scheduler(System.out).run(new BufferedReader(new InputStreamReader(System.in)));
+    }
+
+    // Reads commands until the user quits or the input ends
+    public void run(BufferedReader r) {
         // printing greetings text
-        System.out.println();
-        System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
-        System.out.println("*** Please enter one of the following commands ***");
-        System.out.println("> create_patient <username> <password>");  //TODO: implement create_patient (Part 1)
-        System.out.println("> create_caregiver <username> <password>");
-        System.out.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
-        System.out.println("> login_caregiver <username> <password>");
-        System.out.println("> search_caregiver_schedule <date>");  // TODO: implement search_caregiver_schedule (Part 2)
-        System.out.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
-        System.out.println("> upload_availability <date>");
-        System.out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
-        System.out.println("> add_doses <vaccine> <number>");
-        System.out.println("> show_appointments");  // TODO: implement show_appointments (Part 2)
-        System.out.println("> logout");  // TODO: implement logout (Part 2)
-        System.out.println("> quit");
-        System.out.println();
+        greetingsText();
 
         // read input from user
-        BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
         while (true) {
-            System.out.print("> ");
+            if (interactive) {
+                out.print("> ");
+                out.flush();
+            }
             String response = "";
             try {
                 response = r.readLine();
             } catch (IOException e) {
-                System.out.println("Please try again!");
+                out.println("Please try again!");
+                continue;
+            }
+            if (response == null) {
+                return;
             }
             // split the user input by spaces
-            String[] tokens = response.split(" ");
+            String[] tokens = tokenize(response);
             // check if input exists
             if (tokens.length == 0) {
-                System.out.println("Please try again!");
+                out.println("Please try again!");
                 continue;
             }
-            // determine which operation to perform
-            String operation = tokens[0];
-            if (operation.equals("create_patient")) {
-                createPatient(tokens);
-            } else if (operation.equals("create_caregiver")) {
-                createCaregiver(tokens);
-            } else if (operation.equals("login_patient")) {
-                loginPatient(tokens);
-            } else if (operation.equals("login_caregiver")) {
-                loginCaregiver(tokens);
-            } else if (operation.equals("search_caregiver_schedule")) {
-                searchCaregiverSchedule(tokens);
-            } else if (operation.equals("reserve")) {
-                reserve(tokens);
-            } else if (operation.equals("upload_availability")) {
-                uploadAvailability(tokens);
-            } else if (operation.equals("cancel")) {
-                cancel(tokens);
-            } else if (operation.equals("add_doses")) {
-                addDoses(tokens);
-            } else if (operation.equals("show_appointments")) {
-                showAppointments(tokens);
-            } else if (operation.equals("logout")) {
-                logout(tokens);
-            } else if (operation.equals("quit")) {
-                System.out.println("Bye!");
+            if (!runCommand(tokens)) {
                 return;
+            }
+        }
+    }
+
+    // Runs a single command, returns false once the user asks to quit. A command that fails
+    // unexpectedly is reported like any other failed command and the session goes on.
+    public boolean runCommand(String[] tokens) {
+        long started = Metrics.begin(tokens[0]);
+        boolean changesData = changesData(tokens[0]);
+        if (!changesData) {
+            ReadRouting.begin(reads);
+        }
+        try {
+            return dispatch(tokens);
+        } catch (RuntimeException e) {
+            out.println("Please try again");
+            e.printStackTrace();
+            return true;
+        } finally {
+            if (changesData) {
+                reads.wrote();
             } else {
-                System.out.println("Invalid operation name!");
+                ReadRouting.end();
             }
+            Metrics.end(started);
+        }
+    }
+
+    private boolean dispatch(String[] tokens) {
+        // determine which operation to perform
+        String operation = tokens[0];
+        if (operation.equals("create_patient")) {
+            createPatient(tokens);
+        } else if (operation.equals("create_caregiver")) {
+            createCaregiver(tokens);
+        } else if (operation.equals("login_patient")) {
+            loginPatient(tokens);
+        } else if (operation.equals("login_caregiver")) {
+            loginCaregiver(tokens);
+        } else if (operation.equals("resume")) {
+            resume(tokens);
+        } else if (operation.equals("search_caregiver_schedule")) {
+            searchCaregiverSchedule(tokens);
+        } else if (operation.equals("reserve")) {
+            reserve(tokens);
+        } else if (operation.equals("upload_availability")) {
+            uploadAvailability(tokens);
+        } else if (operation.equals("upload_availability_range")) {
+            uploadAvailabilityRange(tokens);
+        } else if (operation.equals("upload_slots")) {
+            uploadSlots(tokens);
+        } else if (operation.equals("search_slots")) {
+            searchSlots(tokens);
+        } else if (operation.equals("reserve_slot")) {
+            reserveSlot(tokens);
+        } else if (operation.equals("waitlist")) {
+            waitlist(tokens);
+        } else if (operation.equals("cancel")) {
+            cancel(tokens);
+        } else if (operation.equals("add_doses")) {
+            addDoses(tokens);
+        } else if (operation.equals("import_doses")) {
+            importDoses(tokens);
+        } else if (operation.equals("show_appointments")) {
+            showAppointments(tokens);
+        } else if (operation.equals("logout")) {
+            logout(tokens);
+        } else if (operation.equals("stats")) {
+            stats(tokens);
+        } else if (operation.equals("quit")) {
+            out.println("Bye!");
+            return false;
+        } else {
+            out.println("Invalid operation name!");
         }
+        return true;
     }
 
     // TODO
-    private static void createPatient(String[] tokens) {
+    private void createPatient(String[] tokens) {
         if (tokens.length != 3) {
-            System.out.println("Create patient failed");
+            out.println("Create patient failed");
             greetingsText();
             return;
         }
@@ -104,68 +285,87 @@ public class Scheduler {
         String password = tokens[2];
 
         if (usernameExistsPatient(username)) {
-            System.out.println("Username taken, try again");
+            out.println("Username taken, try again");
             greetingsText();
             return;
         }
 
         byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
+        byte[] hash = CredentialService.getInstance().hash(password, salt);
 
         try {
             Patient patient = new Patient.PatientBuilder(username, salt, hash).build();
             patient.saveToDB();
-            System.out.println("Created user " + username);
+            out.println("Created user " + username);
         }
         catch (SQLException e) {
-            System.out.println("Create patient failed");
+            out.println("Create patient failed");
             e.printStackTrace();
         }
         
         greetingsText();
     }
 
-    private static void createCaregiver(String[] tokens) {
+    private void createCaregiver(String[] tokens) {
         // create_caregiver <username> <password>
         // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
+            out.println("Failed to create user.");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
         // check 2: check if the username has been taken already
         if (usernameExistsCaregiver(username)) {
-            System.out.println("Username taken, try again!");
+            out.println("Username taken, try again!");
             return;
         }
         byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
+        byte[] hash = CredentialService.getInstance().hash(password, salt);
         // create the caregiver
         try {
             Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build(); 
             // save to caregiver information to our database
             caregiver.saveToDB();
-            System.out.println("Created user " + username);
+            out.println("Created user " + username);
         } catch (SQLException e) {
-            System.out.println("Failed to create user.");
+            out.println("Failed to create user.");
             e.printStackTrace();
         }
     }
 
-    private static boolean usernameExistsCaregiver(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+    private boolean usernameExistsPatient(String username) {
+        ConnectionManager cm = ConnectionManager.forReads();
+
+        String selectUsername = "SELECT * FROM Patients WHERE Username = ?";
+        try {
+            PreparedStatement statement = cm.prepareStatement(selectUsername);
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.isBeforeFirst();
+            }
+        } catch (SQLException e) {
+            out.println("Error occurred when checking username");
+            e.printStackTrace();
+        } finally {
+            cm.closeConnection();
+        }
+        return true;
+    }
+
+    private boolean usernameExistsCaregiver(String username) {
+        ConnectionManager cm = ConnectionManager.forReads();
 
         String selectUsername = "SELECT * FROM Caregivers WHERE Username = ?";
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
+            PreparedStatement statement = cm.prepareStatement(selectUsername);
             statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
+                return resultSet.isBeforeFirst();
+            }
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            out.println("Error occurred when checking username");
             e.printStackTrace();
         } finally {
             cm.closeConnection();
@@ -174,15 +374,15 @@ public class Scheduler {
     }
 
     // TODO
-    private static void loginPatient(String[] tokens) {
+    private void loginPatient(String[] tokens) {
         if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in, try again");
+            out.println("User already logged in, try again");
             greetingsText();
             return;
         }
 
         if (tokens.length != 3) {
-            System.out.println("Login patient failed");
+            out.println("Login patient failed");
             greetingsText();
             return;
         }
@@ -196,31 +396,33 @@ public class Scheduler {
             patient = new Patient.PatientGetter(username, password).get();
         }
         catch (SQLException e) {
-            System.out.println("Login patient failed");
+            out.println("Login patient failed");
             e.printStackTrace();
         }
 
         if (patient == null) {
-            System.out.println("Login patient failed");
+            out.println("Login patient failed");
         }
         else {
-            System.out.println("Logged in as " + username);
+            out.println("Logged in as " + username);
+            sessionToken = SessionTokens.getInstance().issue(patient);
+            out.println("Session token: " + sessionToken);
             currentPatient = patient;
         }
 
         greetingsText();
     }
 
-    private static void loginCaregiver(String[] tokens) {
+    private void loginCaregiver(String[] tokens) {
         // login_caregiver <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
         if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
+            out.println("User already logged in.");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Login failed.");
+            out.println("Login failed.");
             return;
         }
         String username = tokens[1];
@@ -230,260 +432,520 @@ public class Scheduler {
         try {
             caregiver = new Caregiver.CaregiverGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
+            out.println("Login failed.");
             e.printStackTrace();
         }
         // check if the login was successful
         if (caregiver == null) {
-            System.out.println("Login failed.");
+            out.println("Login failed.");
         } else {
-            System.out.println("Logged in as: " + username);
+            out.println("Logged in as: " + username);
+            sessionToken = SessionTokens.getInstance().issue(caregiver);
+            out.println("Session token: " + sessionToken);
             currentCaregiver = caregiver;
         }
     }
 
-    // TODO
-    private static void searchCaregiverSchedule(String[] tokens) {
-        if (tokens.length != 2) {
-            System.out.println("Please try again");
+    // Logs back in with the token printed at login, without checking the password again
+    private void resume(String[] tokens) {
+        if (currentCaregiver != null || currentPatient != null) {
+            out.println("User already logged in, try again");
             greetingsText();
             return;
         }
 
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first");
+        if (tokens.length != 2) {
+            out.println("Please try again");
             greetingsText();
             return;
         }
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        SessionTokens.Session session = SessionTokens.getInstance().resume(tokens[1]);
+        if (session == null) {
+            out.println("Invalid or expired session token");
+        }
+        else if (session.getPatient() != null) {
+            currentPatient = session.getPatient();
+            sessionToken = tokens[1];
+            out.println("Logged in as " + currentPatient.getUsername());
+        }
+        else {
+            currentCaregiver = session.getCaregiver();
+            sessionToken = tokens[1];
+            out.println("Logged in as: " + currentCaregiver.getUsername());
+        }
 
-        try {
-            String sCaregivers = "SELECT Username FROM Availabilities WHERE Time = ?";
-            String sVaccines = "SELECT * FROM Vaccines";
+        greetingsText();
+    }
 
-            String date = tokens[1];
+    // TODO
+    private void searchCaregiverSchedule(String[] tokens) {
+        // search_caregiver_schedule <date> or search_caregiver_schedule <start> <end>
+        if (tokens.length != 2 && tokens.length != 3) {
+            out.println("Please try again");
+            greetingsText();
+            return;
+        }
+
+        if (currentCaregiver == null && currentPatient == null) {
+            out.println("Please login first");
+            greetingsText();
+            return;
+        }
 
-            Date d1 = Date.valueOf(date);
+        Date start;
+        Date end;
+        try {
+            start = Date.valueOf(tokens[1]);
+            end = tokens.length == 3 ? Date.valueOf(tokens[2]) : start;
+        }
+        catch (IllegalArgumentException e) {
+            out.println("Please try again");
+            greetingsText();
+            return;
+        }
+        if (end.before(start) || start.toLocalDate().plusDays(MAX_AVAILABILITY_RANGE_DAYS).isBefore(end.toLocalDate())) {
+            out.println("Please enter a range of at most " + MAX_AVAILABILITY_RANGE_DAYS + " days");
+            greetingsText();
+            return;
+        }
 
-            PreparedStatement statement1 = con.prepareStatement(sCaregivers);
+        try {
+            // caregivers come from the availability cache, only a miss goes to the database
+            Set<String> cached = tokens.length == 2 ? AvailabilityCache.getInstance().getIfPresent(start) : null;
 
-            statement1.setDate(1, d1);
+            // the vaccines are the same whatever the dates, so they are read once, and at the same
+            // time as the caregivers if those need a round-trip too
+            CompletableFuture<List<String>> vaccines = cached == null
+                    ? QueryExecutor.getInstance().supplyRead(Scheduler::readVaccines)
+                    : null;
 
-            ResultSet rs1 = statement1.executeQuery();
+            if (tokens.length == 2) {
+                Set<String> caregivers = cached != null ? cached : AvailabilityCache.getInstance().get(start);
 
-            if (rs1.isBeforeFirst() == false) {
-                System.out.println("No caregiver is available");
+                if (caregivers.isEmpty()) {
+                    out.println("No caregiver is available");
+                }
+                else {
+                    for (String caregiver : caregivers) {
+                        out.println(caregiver);
+                    }
+                }
             }
             else {
-                while (rs1.next()) {
-                    System.out.println(rs1.getString("Username"));
+                // one query for the whole range, each date printed as soon as it is complete
+                int[] dates = {0};
+                AvailabilityCache.getInstance().forEachDate(start, end, (d, caregivers) -> {
+                    out.println(d + " (" + caregivers.size() + "): " + String.join(" ", caregivers));
+                    dates[0]++;
+                });
+                if (dates[0] == 0) {
+                    out.println("No caregiver is available");
                 }
             }
 
-            PreparedStatement statement2 = con.prepareStatement(sVaccines);
-
-            ResultSet rs2 = statement2.executeQuery();
-
-            if (rs2.isBeforeFirst() == false) {
-                System.out.println("No vaccines available");
+            for (String line : vaccines != null ? QueryExecutor.join(vaccines) : readVaccines()) {
+                out.println(line);
             }
-            else {
-                while (rs2.next()) {
-                    System.out.println(rs2.getString("Name") + " " + 
-                                       rs2.getInt("Doses"));
-                }
-            }
-        }
-        catch (IllegalArgumentException e) {
-            System.out.println("Please try again");
         }
         catch (SQLException e) {
-            System.out.println("Please try again");
+            out.println("Please try again");
             e.printStackTrace();
         }
+
+        greetingsText();
+    }
+
+    // One line per vaccine with its doses, as search_caregiver_schedule prints them
+    private static List<String> readVaccines() throws SQLException {
+        ConnectionManager cm = ConnectionManager.forReads();
+        try {
+            return readVaccines(cm);
+        }
         finally {
             cm.closeConnection();
         }
+    }
 
-        greetingsText();
+    private static List<String> readVaccines(ConnectionManager cm) throws SQLException {
+        String sVaccines = "SELECT * FROM Vaccines";
+
+        PreparedStatement statement = cm.prepareStatement(sVaccines);
+        List<String> lines = new ArrayList<>();
+        try (ResultSet rs = statement.executeQuery()) {
+            VaccineInventory inventory = VaccineInventory.getInstance();
+            while (rs.next()) {
+                String name = rs.getString("Name");
+                lines.add(name + " " + inventory.available(name, rs.getInt("Doses")));
+            }
+        }
+        if (lines.isEmpty()) {
+            lines.add("No vaccines available");
+        }
+        return lines;
     }
 
     // TODO
-    private static void reserve(String[] tokens) {
+    private void reserve(String[] tokens) {
         if (tokens.length != 3) {
-            System.out.println("Please try again");
+            out.println("Please try again");
             greetingsText();
             return;
         }
 
         if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first");
+            out.println("Please login first");
             greetingsText();
             return;
         }
 
         if (currentCaregiver != null && currentPatient == null) {
-            System.out.println("Please login as a patient");
+            out.println("Please login as a patient");
             greetingsText();
             return;
         }
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        String date = tokens[1];
+        String vaccine = tokens[2];
+
+        Date d1 = null;
 
         try {
-            String date = tokens[1];
-            String vaccine = tokens[2];
+            d1 = Date.valueOf(date);
+        }
+        catch (IllegalArgumentException e) {
+            out.println("Please try again");
+            greetingsText();
+            return;
+        }
 
-            Date d1 = Date.valueOf(date);
-            
-            String iAppointments = "INSERT INTO Appointments VALUES(?, ?, ?, ?)";
-            String sVaccines = "SELECT * FROM Vaccines WHERE Doses > 0 AND Name = ?";
-            String sCaregivers = "SELECT * FROM Availabilities WHERE Time = ? ORDER BY Username";
-            String sAppointments = "SELECT * FROM Appointments WHERE Time = ? AND c_username = ?";
-            
-            PreparedStatement statement1 = con.prepareStatement(sCaregivers);
+        try {
+            Appointment appointment = new Appointment.AppointmentReserver(d1, currentPatient.getUsername(), vaccine).reserve();
 
-            statement1.setDate(1, d1);
+            if (appointment == null) {
+                out.println("No caregiver is available");
+            }
+            else {
+                out.println("Appointment ID " + appointment.getAppointmentId() +
+                            ", Caregiver username " + appointment.getCaregiverUsername());
+            }
+        }
+        catch (IllegalArgumentException e) {
+            out.println("Not enough available doses");
+        }
+        catch (SQLException e) {
+            out.println("Please try again");
+            e.printStackTrace();
+        }
 
-            ResultSet rs1 = statement1.executeQuery();
+        greetingsText();
+    }
 
-            String name = "";
+    private void uploadAvailability(String[] tokens) {
+        // upload_availability <date>
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null) {
+            out.println("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
+        if (tokens.length != 2) {
+            out.println("Please try again!");
+            return;
+        }
+        String date = tokens[1];
+        try {
+            Date d = Date.valueOf(date);
+            currentCaregiver.uploadAvailability(d);
+            out.println("Availability uploaded!");
+        } catch (IllegalArgumentException e) {
+            out.println("Please enter a valid date!");
+        } catch (SQLException e) {
+            out.println("Error occurred when uploading availability");
+            e.printStackTrace();
+        }
+    }
 
-            if (!rs1.isBeforeFirst()) {
-                System.out.println("No caregiver is available");
-                cm.closeConnection();
-                greetingsText();
+    private void uploadSlots(String[] tokens) {
+        // upload_slots <date> <start HH:MM> <end HH:MM>
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null) {
+            out.println("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the date and the start and end of the slots are required
+        if (tokens.length != 4) {
+            out.println("Please try again!");
+            return;
+        }
+        try {
+            Date d = Date.valueOf(tokens[1]);
+            int from = SlotBitmap.parse(tokens[2]);
+            int to = SlotBitmap.parse(tokens[3]);
+            if (from >= to) {
+                out.println("Please enter times on a " + SlotBitmap.SLOT_MINUTES + " minute boundary, start before end!");
                 return;
-            } 
-            else {
-                rs1.next();
-                name = rs1.getString("Username");
-
-                PreparedStatement statement2 = con.prepareStatement(sAppointments);
+            }
+            currentCaregiver.uploadSlots(d, from, to);
+            out.println("Slots uploaded for " + SlotBitmap.format(from) + "-" + SlotBitmap.format(to) + "!");
+        } catch (IllegalArgumentException e) {
+            out.println("Please enter times on a " + SlotBitmap.SLOT_MINUTES + " minute boundary, start before end!");
+        } catch (SQLException e) {
+            out.println("Error occurred when uploading availability");
+            e.printStackTrace();
+        }
+    }
 
-                statement2.setDate(1, d1);
-                statement2.setString(2, name);
+    private void searchSlots(String[] tokens) {
+        // search_slots <date>
+        // prints every caregiver with free slots on the date and the free time ranges
+        if (tokens.length != 2) {
+            out.println("Please try again");
+            greetingsText();
+            return;
+        }
 
-                ResultSet rs2 = statement2.executeQuery();
+        if (currentCaregiver == null && currentPatient == null) {
+            out.println("Please login first");
+            greetingsText();
+            return;
+        }
 
-                if (rs2.isBeforeFirst()) {
-                    System.out.println("No caregiver is available");
-                    cm.closeConnection();
-                    greetingsText();
-                    return;
+        try {
+            Date d = Date.valueOf(tokens[1]);
+            boolean any = false;
+            for (Map.Entry<String, SlotBitmap> entry : SlotCache.getInstance().get(d).entrySet()) {
+                String ranges = entry.getValue().freeRanges();
+                if (!ranges.isEmpty()) {
+                    out.println(entry.getKey() + " " + ranges);
+                    any = true;
                 }
             }
+            if (!any) {
+                out.println("No caregiver is available");
+            }
+        }
+        catch (IllegalArgumentException e) {
+            out.println("Please try again");
+        }
+        catch (SQLException e) {
+            out.println("Please try again");
+            e.printStackTrace();
+        }
 
-            PreparedStatement statement3 = con.prepareStatement(sVaccines);
-
-            statement3.setString(1, vaccine);
+        greetingsText();
+    }
 
-            ResultSet rs3 = statement3.executeQuery();
+    // Queues the patient for the date. They are booked, first come first served, as soon as a
+    // caregiver and a dose are both free, and see the appointment in show_appointments.
+    private void waitlist(String[] tokens) {
+        if (tokens.length != 3) {
+            out.println("Please try again");
+            greetingsText();
+            return;
+        }
 
-            if (rs3.isBeforeFirst() == false) {
-                System.out.println("Not enough available doses");
-                greetingsText();
-                cm.closeConnection();
-                return;
-            }
-            else {
-                Vaccine vaccination = new Vaccine.VaccineGetter(vaccine).get();
-                vaccination.decreaseAvailableDoses(1);
-            }
+        if (currentPatient == null) {
+            out.println("Please login as a patient");
+            greetingsText();
+            return;
+        }
 
-            PreparedStatement statement4 = con.prepareStatement(iAppointments);
+        Date d;
+        try {
+            d = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            out.println("Please try again");
+            greetingsText();
+            return;
+        }
+        String vaccine = tokens[2];
 
-            statement4.setDate(1, d1);
-            statement4.setString(2, name);
-            statement4.setString(3, currentPatient.getUsername());
-            statement4.setString(4, vaccine);
-            statement4.executeUpdate();
+        try {
+            if (new Vaccine.VaccineGetter(vaccine).get() == null) {
+                out.println("Invalid vaccine name");
+            } else {
+                WaitlistEntry entry = new WaitlistEntry.WaitlistEntryBuilder(d, currentPatient.getUsername(), vaccine).build();
+                if (entry.saveToDB()) {
+                    out.println("Waitlisted for " + d + ", position " + entry.position());
+                    // there may be a caregiver and a dose free already
+                    WaitlistMatcher.getInstance().availabilityAdded(List.of(d));
+                } else {
+                    out.println("You are already on the waitlist for " + d);
+                }
+            }
+        } catch (SQLException e) {
+            out.println("Please try again");
+            e.printStackTrace();
+        }
 
-            String seAppointments = "SELECT * FROM Appointments ORDER BY Appointment_ID DESC";
+        greetingsText();
+    }
 
-            PreparedStatement statement5 = con.prepareStatement(seAppointments);
+    private void reserveSlot(String[] tokens) {
+        // reserve_slot <date> <HH:MM|any> <vaccine>
+        if (tokens.length != 4) {
+            out.println("Please try again");
+            greetingsText();
+            return;
+        }
 
-            ResultSet rs5 = statement5.executeQuery();
+        if (currentCaregiver == null && currentPatient == null) {
+            out.println("Please login first");
+            greetingsText();
+            return;
+        }
 
-            rs5.next();
+        if (currentPatient == null) {
+            out.println("Please login as a patient");
+            greetingsText();
+            return;
+        }
 
-            System.out.println("Appointment ID " + rs5.getInt("Appointment_ID") +
-                               ", Caregiver username " + rs5.getString("c_username"));
+        Date d1 = null;
+        int slot = -1;
 
-            String dAvailabilities = "DELETE FROM Availabilities WHERE Username = ? AND Time = ?";
+        try {
+            d1 = Date.valueOf(tokens[1]);
+            if (!tokens[2].equals("any")) {
+                slot = SlotBitmap.parse(tokens[2]);
+            }
+            if (slot >= SlotBitmap.SLOTS_PER_DAY) {
+                throw new IllegalArgumentException("Not a slot: " + tokens[2]);
+            }
+        }
+        catch (IllegalArgumentException e) {
+            out.println("Please try again");
+            greetingsText();
+            return;
+        }
 
-            PreparedStatement statement6 = con.prepareStatement(dAvailabilities);
+        try {
+            Appointment appointment = new Appointment.SlotReserver(d1, slot, currentPatient.getUsername(), tokens[3]).reserve();
 
-            statement6.setString(1, rs5.getString("c_username"));
-            statement6.setDate(2, d1);
-            statement6.executeUpdate();
+            if (appointment == null) {
+                out.println("No caregiver is available");
+            }
+            else {
+                out.println("Appointment ID " + appointment.getAppointmentId() +
+                            ", Caregiver username " + appointment.getCaregiverUsername() +
+                            ", Time " + SlotBitmap.format(appointment.getSlot()));
+            }
         }
         catch (IllegalArgumentException e) {
-            System.out.println("Please try again");
+            out.println("Not enough available doses");
         }
         catch (SQLException e) {
-            System.out.println("Please try again");
+            out.println("Please try again");
             e.printStackTrace();
         }
-        finally {
-            cm.closeConnection();
-        }
 
         greetingsText();
     }
 
-    private static void uploadAvailability(String[] tokens) {
-        // upload_availability <date>
+    private void uploadAvailabilityRange(String[] tokens) {
+        // upload_availability_range <start> <end> [weekdays]
         // check 1: check if the current logged-in user is a caregiver
         if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+            out.println("Please login as a caregiver first!");
             return;
         }
-        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
-        if (tokens.length != 2) {
-            System.out.println("Please try again!");
+        // check 2: start and end dates are required, the weekdays (e.g. mon,wed,fri) are optional
+        if (tokens.length != 3 && tokens.length != 4) {
+            out.println("Please try again!");
             return;
         }
-        String date = tokens[1];
+        List<Date> dates = new ArrayList<>();
         try {
-            Date d = Date.valueOf(date);
-            currentCaregiver.uploadAvailability(d);
-            System.out.println("Availability uploaded!");
+            LocalDate start = LocalDate.parse(tokens[1]);
+            LocalDate end = LocalDate.parse(tokens[2]);
+            Set<DayOfWeek> weekdays = tokens.length == 4 ? parseWeekdays(tokens[3]) : EnumSet.allOf(DayOfWeek.class);
+            // check 3: the range has to be in order and at most a year long
+            if (end.isBefore(start) || start.plusDays(MAX_AVAILABILITY_RANGE_DAYS).isBefore(end)) {
+                out.println("Please enter a range of at most " + MAX_AVAILABILITY_RANGE_DAYS + " days!");
+                return;
+            }
+            for (LocalDate day = start; !day.isAfter(end); day = day.plusDays(1)) {
+                if (weekdays.contains(day.getDayOfWeek())) {
+                    dates.add(Date.valueOf(day));
+                }
+            }
+        } catch (DateTimeParseException e) {
+            out.println("Please enter a valid date!");
+            return;
         } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
+            out.println("Please enter valid weekdays!");
+            return;
+        }
+        try {
+            List<Date> conflicts = currentCaregiver.uploadAvailability(dates);
+            out.println("Availability uploaded for " + (dates.size() - conflicts.size()) + " dates!");
+            if (!conflicts.isEmpty()) {
+                StringBuilder sb = new StringBuilder("Already available on:");
+                for (Date d : conflicts) {
+                    sb.append(' ').append(d);
+                }
+                out.println(sb);
+            }
         } catch (SQLException e) {
-            System.out.println("Error occurred when uploading availability");
+            out.println("Error occurred when uploading availability");
             e.printStackTrace();
         }
     }
 
-    private static void cancel(String[] tokens) {
+    // Parses a comma separated list of weekdays, e.g. "mon,wed,fri" or "monday,friday"
+    private static Set<DayOfWeek> parseWeekdays(String weekdays) {
+        Set<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+        for (String name : weekdays.split(",")) {
+            String prefix = name.trim().toUpperCase();
+            DayOfWeek match = null;
+            for (DayOfWeek day : DayOfWeek.values()) {
+                if (prefix.length() >= 3 && day.name().startsWith(prefix)) {
+                    match = day;
+                }
+            }
+            if (match == null) {
+                throw new IllegalArgumentException("Unknown weekday: " + name);
+            }
+            days.add(match);
+        }
+        return days;
+    }
+
+    private void cancel(String[] tokens) {
         // TODO: Extra credit
         // No thanks!
     }
 
-    private static void addDoses(String[] tokens) {
+    private void addDoses(String[] tokens) {
         // add_doses <vaccine> <number>
         // check 1: check if the current logged-in user is a caregiver
         if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+            out.println("Please login as a caregiver first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            out.println("Please try again!");
             return;
         }
         String vaccineName = tokens[1];
-        int doses = Integer.parseInt(tokens[2]);
+        int doses;
+        try {
+            doses = Integer.parseInt(tokens[2]);
+        } catch (NumberFormatException e) {
+            out.println("Please try again!");
+            return;
+        }
+        if (doses <= 0) {
+            out.println("Please enter a positive number of doses!");
+            return;
+        }
         Vaccine vaccine = null;
         try {
             vaccine = new Vaccine.VaccineGetter(vaccineName).get();
         } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
+            out.println("Error occurred when adding doses");
             e.printStackTrace();
         }
         // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
@@ -493,7 +955,7 @@ public class Scheduler {
                 vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
                 vaccine.saveToDB();
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
+                out.println("Error occurred when adding doses");
                 e.printStackTrace();
             }
         } else {
@@ -501,92 +963,329 @@ public class Scheduler {
             try {
                 vaccine.increaseAvailableDoses(doses);
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
+                out.println("Error occurred when adding doses");
                 e.printStackTrace();
             }
         }
-        System.out.println("Doses updated!");
+        out.println("Doses updated!");
+    }
+
+    private void importDoses(String[] tokens) {
+        // import_doses <file>
+        // every line of the file is "<vaccine>,<number>"; blank lines and lines starting with # are skipped
+        if (currentCaregiver == null) {
+            out.println("Please login as a caregiver first!");
+            return;
+        }
+        if (tokens.length != 2) {
+            out.println("Please try again!");
+            return;
+        }
+        Vaccine.VaccineImporter importer = new Vaccine.VaccineImporter(IMPORT_CHUNK_SIZE);
+        long lineNumber = 0;
+        long skipped = 0;
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(tokens[1]))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int comma = line.indexOf(',');
+                try {
+                    if (comma < 0) {
+                        throw new IllegalArgumentException();
+                    }
+                    String vaccineName = line.substring(0, comma).trim();
+                    int doses = Integer.parseInt(line.substring(comma + 1).trim());
+                    if (vaccineName.isEmpty()) {
+                        throw new IllegalArgumentException();
+                    }
+                    importer.add(vaccineName, doses);
+                } catch (IllegalArgumentException e) {
+                    // a header line or a typo, report the first few and keep going
+                    if (++skipped <= MAX_REPORTED_IMPORT_ERRORS) {
+                        out.println("Skipping line " + lineNumber + ": " + line);
+                    }
+                }
+            }
+            long doses = importer.finish();
+            out.println("Imported " + doses + " doses, skipped " + skipped + " lines");
+        } catch (IOException e) {
+            out.println("Could not read " + tokens[1]);
+        } catch (SQLException e) {
+            // chunks written before the failure stay committed
+            out.println("Error occurred when adding doses near line " + lineNumber);
+            e.printStackTrace();
+        }
     }
 
     // TODO
-    private static void showAppointments(String[] tokens) {
-        if (tokens.length != 1) {
-            System.out.println("Please try again");
+    private void showAppointments(String[] tokens) {
+        // show_appointments [after_id] [limit] [from_date] [to_date]
+        // prints one page of appointments in ID order, starting after after_id
+        if (tokens.length > 5) {
+            out.println("Please try again");
             greetingsText();
             return;
         }
 
         if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first");
+            out.println("Please login first");
             greetingsText();
             return;
         }
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        int afterId = 0;
+        int limit = APPOINTMENT_PAGE_SIZE;
+        Date from = null;
+        Date to = null;
+
+        try {
+            if (tokens.length > 1) {
+                afterId = Integer.parseInt(tokens[1]);
+            }
+            if (tokens.length > 2) {
+                limit = Integer.parseInt(tokens[2]);
+            }
+            if (tokens.length > 3) {
+                from = Date.valueOf(tokens[3]);
+            }
+            if (tokens.length > 4) {
+                to = Date.valueOf(tokens[4]);
+            }
+        }
+        catch (IllegalArgumentException e) {
+            out.println("Please try again");
+            greetingsText();
+            return;
+        }
+
+        if (afterId < 0 || limit <= 0 || limit > MAX_APPOINTMENT_PAGE_SIZE) {
+            out.println("Please enter a limit between 1 and " + MAX_APPOINTMENT_PAGE_SIZE);
+            greetingsText();
+            return;
+        }
 
         String username = "";
         String pcusername = "p_username";
-        String sAppointments = "SELECT Appointment_ID, v_name, Time, p_username FROM Appointments WHERE c_username = ?";
 
         if (currentPatient != null) {
             username = currentPatient.getUsername();
             pcusername = "c_username";
-            sAppointments = "SELECT Appointment_ID, v_name, Time, c_username FROM Appointments WHERE p_username = ?";
         }
         else {
             username = currentCaregiver.getUsername();
         }
 
-        try {
-            PreparedStatement statement1 = con.prepareStatement(sAppointments);
-
-            statement1.setString(1, username);
+        String sAppointments = appointmentPage(currentPatient != null, from != null, to != null);
 
-            ResultSet rs1 = statement1.executeQuery();
+        // a caregiver's appointments are on one shard when sharding by caregiver, and a date
+        // range may rule out shards when sharding by date; everything else is on any shard
+        ShardRouter router = ShardRouter.getInstance();
+        List<Integer> shards = router.shardsFor(from, to, currentCaregiver != null ? username : null);
 
-            if (rs1.isBeforeFirst() == false) {
-                System.out.println("No appointments");
+        try {
+            int[] rows = {0};
+            int[] lastId = {afterId};
+            if (shards.size() == 1) {
+                // rows are printed as they arrive rather than collected first
+                ConnectionManager cm = ConnectionManager.forReads(router.getPool(shards.get(0)));
+                try {
+                    readAppointments(cm, shards.get(0), sAppointments, pcusername, username, afterId, from, to, limit,
+                            (id, line) -> {
+                                out.println(line);
+                                lastId[0] = id;
+                                rows[0]++;
+                            });
+                }
+                finally {
+                    cm.closeConnection();
+                }
             }
             else {
-                while (rs1.next()) {
-                    System.out.println(rs1.getInt("Appointment_ID") +  " " + 
-                                       rs1.getString("v_name") + " " + 
-                                       rs1.getDate("Time") +  " " + 
-                                       rs1.getString(pcusername));
+                // every shard's first page at the same time, then the first page of all of them
+                List<CompletableFuture<TreeMap<Integer, String>>> pages = new ArrayList<>(shards.size());
+                for (int shard : shards) {
+                    String query = sAppointments;
+                    String other = pcusername;
+                    String user = username;
+                    int after = afterId;
+                    Date first = from;
+                    Date last = to;
+                    int max = limit;
+                    pages.add(router.getExecutor(shard).supplyRead(cm -> {
+                        TreeMap<Integer, String> page = new TreeMap<>();
+                        readAppointments(cm, shard, query, other, user, after, first, last, max, page::put);
+                        return page;
+                    }));
+                }
+                TreeMap<Integer, String> merged = new TreeMap<>();
+                for (CompletableFuture<TreeMap<Integer, String>> page : pages) {
+                    merged.putAll(QueryExecutor.join(page));
+                }
+                for (Map.Entry<Integer, String> row : merged.entrySet()) {
+                    if (rows[0] == limit) {
+                        break;
+                    }
+                    out.println(row.getValue());
+                    lastId[0] = row.getKey();
+                    rows[0]++;
                 }
             }
+
+            if (rows[0] == 0) {
+                out.println("No appointments");
+            }
+            else if (rows[0] == limit) {
+                out.println("More appointments: show_appointments " + lastId[0] + " " + limit +
+                            (from != null ? " " + from : "") + (to != null ? " " + to : ""));
+            }
         }
         catch (SQLException e) {
-            System.out.println("Please try again");
+            out.println("Please try again");
             e.printStackTrace();
         }
-        finally {
-            cm.closeConnection();
-        }
 
         greetingsText();
     }
 
+    // The query for a page of show_appointments, with parameters username, the last ID of the
+    // previous page and the optional dates. Keyset pagination: the page is a seek past that ID
+    // on an index keyed (user, Appointment_ID), IX_Appointments_Patient or
+    // IX_Appointments_Caregiver_ID, with no sort and no rows read before the cursor
+    public static String appointmentPage(boolean patient, boolean from, boolean to) {
+        String sAppointments = patient ? PATIENT_APPOINTMENTS : CAREGIVER_APPOINTMENTS;
+        sAppointments += " AND Appointment_ID > ?";
+        if (from) {
+            sAppointments += " AND Time >= ?";
+        }
+        if (to) {
+            sAppointments += " AND Time <= ?";
+        }
+        // the user is fixed, so this is ID order; naming it lets the planner see the index is
+        // already in that order (H2 only skips the sort for a prefix of the index key)
+        return sAppointments + (patient ? " ORDER BY p_username, Appointment_ID" : " ORDER BY c_username, Appointment_ID");
+    }
+
+    // Reads up to limit appointments of the shard with IDs (as users see them) above afterId,
+    // and hands each one's ID and printed line to the consumer in ID order
+    private static void readAppointments(ConnectionManager cm, int shard, String sAppointments, String pcusername,
+                                         String username, int afterId, Date from, Date to, int limit,
+                                         BiConsumer<Integer, String> consumer) throws SQLException {
+        ShardRouter router = ShardRouter.getInstance();
+        PreparedStatement statement1 = cm.prepareStatement(sAppointments);
+        int parameter = 1;
+        statement1.setString(parameter++, username);
+        statement1.setInt(parameter++, router.localIdAtMost(shard, afterId));
+        if (from != null) {
+            statement1.setDate(parameter++, from);
+        }
+        if (to != null) {
+            statement1.setDate(parameter++, to);
+        }
+        statement1.setMaxRows(limit);
+        statement1.setFetchSize(Math.min(limit, APPOINTMENT_FETCH_SIZE));
+
+        try (ResultSet rs1 = statement1.executeQuery()) {
+            while (rs1.next()) {
+                int id = router.globalId(shard, rs1.getInt("Appointment_ID"));
+                // slot appointments also show their start time
+                int slot = rs1.getInt("Slot");
+                String time = rs1.wasNull() ? "" : " " + SlotBitmap.format(slot);
+                consumer.accept(id, id + " " +
+                                    rs1.getString("v_name") + " " +
+                                    rs1.getDate("Time") + time + " " +
+                                    rs1.getString(pcusername));
+            }
+        }
+    }
+
     // TODO
-    private static void logout(String[] tokens) {
+    private void logout(String[] tokens) {
         if (tokens.length != 1) {
-            System.out.println("Please try again");
+            out.println("Please try again");
             greetingsText();
             return;
         }
 
         if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first");
+            out.println("Please login first");
             greetingsText();
             return;
         }
 
+        // logging out ends the session for good, the token cannot resume it any more
+        if (sessionToken != null) {
+            SessionTokens.getInstance().revoke(sessionToken);
+            sessionToken = null;
+        }
         currentCaregiver = null;
         currentPatient = null;
 
-        System.out.println("Successfully logged out");
+        out.println("Successfully logged out");
+
+        greetingsText();
+    }
+
+    // Prints what Metrics has recorded per command since startup, across all sessions
+    private void stats(String[] tokens) {
+        if (tokens.length != 1) {
+            out.println("Please try again");
+            greetingsText();
+            return;
+        }
+
+        if (!Metrics.ENABLED) {
+            out.println("Metrics are disabled, start the scheduler with Metrics=1");
+            greetingsText();
+            return;
+        }
+
+        out.println(String.format("%-26s %8s %10s %10s %10s %10s %10s %8s %8s %12s",
+                "command", "count", "mean(us)", "p50(us)", "p99(us)", "p999(us)", "max(us)",
+                "db/cmd", "conn/cmd", "hash(us)/cmd"));
+        for (CommandStats stats : Metrics.snapshot()) {
+            long count = Math.max(1, stats.getCount());
+            out.println(String.format("%-26s %8d %10d %10d %10d %10d %10d %8.1f %8.1f %12d",
+                    stats.getCommand(), stats.getCount(), stats.getMeanMicros(),
+                    stats.getP50Micros(), stats.getP99Micros(), stats.getP999Micros(), stats.getMaxMicros(),
+                    (double) stats.getDatabaseRoundTrips() / count,
+                    (double) stats.getConnectionAcquisitions() / count,
+                    stats.getHashMicros() / count));
+        }
 
         greetingsText();
     }
+
+    private void greetingsText() {
+        if (!interactive) {
+            return;
+        }
+        out.println();
+        out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
+        out.println("*** Please enter one of the following commands ***");
+        out.println("> create_patient <username> <password>");  //TODO: implement create_patient (Part 1)
+        out.println("> create_caregiver <username> <password>");
+        out.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
+        out.println("> login_caregiver <username> <password>");
+        out.println("> resume <session_token>");
+        out.println("> search_caregiver_schedule <date> [end_date]");  // TODO: implement search_caregiver_schedule (Part 2)
+        out.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
+        out.println("> upload_availability <date>");
+        out.println("> upload_availability_range <start> <end> [weekdays]");
+        out.println("> upload_slots <date> <start HH:MM> <end HH:MM>");
+        out.println("> search_slots <date>");
+        out.println("> reserve_slot <date> <HH:MM|any> <vaccine>");
+        out.println("> waitlist <date> <vaccine>");
+        out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
+        out.println("> add_doses <vaccine> <number>");
+        out.println("> import_doses <file>");
+        out.println("> show_appointments [after_id] [limit] [from_date] [to_date]");  // TODO: implement show_appointments (Part 2)
+        out.println("> logout");  // TODO: implement logout (Part 2)
+        out.println("> stats");
+        out.println("> quit");
+        out.println();
+    }
 }
@@ -0,0 +1,54 @@
+package scheduler;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Serves the scheduler to many clients at once over a line-based TCP protocol on the loopback
+// interface. Clients send the same commands as the terminal, one per line, and get the same
+// output back. Every connection is its own session with its own logged-in user and runs on
+// its own virtual thread; all sessions share the database connection pool.
+public class SchedulerServer {
+
+    public static final int DEFAULT_PORT = 7414;
+    private static final int BACKLOG = 1024;
+
+    private final int port;
+    private final AtomicLong sessions = new AtomicLong();
+
+    public SchedulerServer(int port) {
+        this.port = port;
+    }
+
+    public void serve() throws IOException {
+        try (ServerSocket server = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress())) {
+            System.out.println("Scheduler listening on " + server.getLocalSocketAddress());
+            while (true) {
+                Socket client = server.accept();
+                Thread.ofVirtual()
+                        .name("session-" + sessions.incrementAndGet())
+                        .start(() -> handle(client));
+            }
+        }
+    }
+
+    private void handle(Socket client) {
+        try (client;
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(
+                     new BufferedOutputStream(client.getOutputStream()), true, StandardCharsets.UTF_8)) {
+            client.setTcpNoDelay(true);
+            new Scheduler(out).run(in);
+        } catch (IOException e) {
+            // the client went away, nothing to clean up beyond the socket
+        }
+    }
+}
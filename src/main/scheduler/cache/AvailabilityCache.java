@@ -0,0 +1,252 @@
+package scheduler.cache;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.QueryExecutor;
+import scheduler.db.ShardRouter;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+// Read-through cache of which caregivers are available on a date.
+//
+// Entries are evicted least-recently-used once there are more than maxEntries dates, and
+// expire ttlMillis after they were loaded. Everything in this process that changes the
+// Availabilities table for a date invalidates that date; the TTL bounds how stale an entry
+// can get when another process changes the table.
+public class AvailabilityCache {
+
+    private static final AvailabilityCache INSTANCE = new AvailabilityCache(
+            Util.intSetting("AvailabilityCacheSize", 1024),
+            Util.intSetting("AvailabilityCacheTtlSeconds", 30) * 1000L);
+
+    private static final int RANGE_FETCH_SIZE = 512;
+
+    private final int maxEntries;
+    private final long ttlMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Date, Entry> entries;
+    // bumped by every invalidation, so a load that raced with one is not cached
+    private long invalidations = 0;
+
+    public AvailabilityCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Date, Entry> eldest) {
+                return size() > AvailabilityCache.this.maxEntries;
+            }
+        };
+    }
+
+    public static AvailabilityCache getInstance() {
+        return INSTANCE;
+    }
+
+    // The caregivers available on the date, sorted by username
+    public NavigableSet<String> get(Date d) throws SQLException {
+        long seen;
+        lock.lock();
+        try {
+            Entry entry = entries.get(d);
+            if (entry != null && System.currentTimeMillis() - entry.loadedAt < ttlMillis) {
+                return entry.caregivers;
+            }
+            seen = invalidations;
+        } finally {
+            lock.unlock();
+        }
+
+        long loadedAt = System.currentTimeMillis();
+        NavigableSet<String> caregivers = load(d);
+
+        lock.lock();
+        try {
+            if (seen == invalidations && ttlMillis > 0 && maxEntries > 0) {
+                entries.put(d, new Entry(caregivers, loadedAt));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return caregivers;
+    }
+
+    // The caregivers available on the date if they are cached, null if get() would have to load them
+    public NavigableSet<String> getIfPresent(Date d) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(d);
+            if (entry != null && System.currentTimeMillis() - entry.loadedAt < ttlMillis) {
+                return entry.caregivers;
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Streams the caregivers available on each date in [first, last] that has any, in date
+    // order, from one query over the whole range. Each date is handed to the consumer as soon
+    // as its last row is read, and is cached like a get() of that date. When the range spans
+    // several shards they are queried at the same time and merged before anything is handed out.
+    public void forEachDate(Date first, Date last, BiConsumer<Date, NavigableSet<String>> consumer) throws SQLException {
+        long seen;
+        lock.lock();
+        try {
+            seen = invalidations;
+        } finally {
+            lock.unlock();
+        }
+        long loadedAt = System.currentTimeMillis();
+
+        ShardRouter router = ShardRouter.getInstance();
+        List<Integer> shards = router.shardsFor(first, last, null);
+        if (shards.size() == 1) {
+            ConnectionManager cm = new ConnectionManager(router.getPool(shards.get(0)));
+            try {
+                scan(cm, first, last, (d, caregivers) -> consumer.accept(d, loaded(d, caregivers, seen, loadedAt)));
+            } finally {
+                cm.closeConnection();
+            }
+            return;
+        }
+
+        List<CompletableFuture<TreeMap<Date, TreeSet<String>>>> parts = new ArrayList<>(shards.size());
+        for (int shard : shards) {
+            parts.add(router.getExecutor(shard).supply(cm -> {
+                TreeMap<Date, TreeSet<String>> part = new TreeMap<>();
+                scan(cm, first, last, part::put);
+                return part;
+            }));
+        }
+        TreeMap<Date, TreeSet<String>> merged = new TreeMap<>();
+        for (CompletableFuture<TreeMap<Date, TreeSet<String>>> part : parts) {
+            for (Map.Entry<Date, TreeSet<String>> entry : QueryExecutor.join(part).entrySet()) {
+                merged.computeIfAbsent(entry.getKey(), k -> new TreeSet<>()).addAll(entry.getValue());
+            }
+        }
+        for (Map.Entry<Date, TreeSet<String>> entry : merged.entrySet()) {
+            consumer.accept(entry.getKey(), loaded(entry.getKey(), entry.getValue(), seen, loadedAt));
+        }
+    }
+
+    // Hands the caregivers of each date in [first, last] to the consumer, in date order
+    private static void scan(ConnectionManager cm, Date first, Date last, BiConsumer<Date, TreeSet<String>> consumer)
+            throws SQLException {
+        String selectRange = "SELECT Time, Username FROM Availabilities WHERE Time BETWEEN ? AND ? ORDER BY Time, Username";
+        PreparedStatement statement = cm.prepareStatement(selectRange);
+        statement.setDate(1, first);
+        statement.setDate(2, last);
+        statement.setFetchSize(RANGE_FETCH_SIZE);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            Date current = null;
+            TreeSet<String> caregivers = null;
+            while (resultSet.next()) {
+                Date d = resultSet.getDate("Time");
+                if (!d.equals(current)) {
+                    if (current != null) {
+                        consumer.accept(current, caregivers);
+                    }
+                    current = d;
+                    caregivers = new TreeSet<>();
+                }
+                caregivers.add(resultSet.getString("Username"));
+            }
+            if (current != null) {
+                consumer.accept(current, caregivers);
+            }
+        }
+    }
+
+    private NavigableSet<String> loaded(Date d, TreeSet<String> caregivers, long seen, long loadedAt) {
+        NavigableSet<String> result = Collections.unmodifiableNavigableSet(caregivers);
+        lock.lock();
+        try {
+            if (seen == invalidations && ttlMillis > 0 && maxEntries > 0) {
+                entries.put(d, new Entry(result, loadedAt));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return result;
+    }
+
+    public void invalidate(Date d) {
+        lock.lock();
+        try {
+            invalidations++;
+            entries.remove(d);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidate(Collection<Date> dates) {
+        lock.lock();
+        try {
+            invalidations++;
+            for (Date d : dates) {
+                entries.remove(d);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            invalidations++;
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static NavigableSet<String> load(Date d) throws SQLException {
+        String selectCaregivers = "SELECT Username FROM Availabilities WHERE Time = ?";
+        ShardRouter router = ShardRouter.getInstance();
+        TreeSet<String> caregivers = new TreeSet<>();
+        for (int shard : router.shardsFor(d)) {
+            ConnectionManager cm = new ConnectionManager(router.getPool(shard));
+            try {
+                PreparedStatement statement = cm.prepareStatement(selectCaregivers);
+                statement.setDate(1, d);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        caregivers.add(resultSet.getString("Username"));
+                    }
+                }
+            } finally {
+                cm.closeConnection();
+            }
+        }
+        return Collections.unmodifiableNavigableSet(caregivers);
+    }
+
+    private static class Entry {
+        private final NavigableSet<String> caregivers;
+        private final long loadedAt;
+
+        private Entry(NavigableSet<String> caregivers, long loadedAt) {
+            this.caregivers = caregivers;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package scheduler.cache;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.ShardRouter;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// How many appointments each caregiver has in the week (Monday to Sunday) of a date, for
+// spreading new bookings over them.
+//
+// The load is counted over the week rather than the date: reserve only offers caregivers
+// not booked on the date yet, so on the date itself all of them would count 0. A week's
+// counts are read from the Appointments table once, by preload(), and then kept up to date
+// by booked(); until then the week counts as empty. Every date also has a cursor that hands
+// out a different starting point to each caller, which round-robin assignment and
+// tie-breaking use, and which needs no query. The least recently used weeks and dates are
+// dropped beyond maxEntries. The counts are only a guide for ordering claims, the claims
+// themselves are what keeps bookings correct.
+public class CaregiverLoad {
+
+    private static final CaregiverLoad INSTANCE = new CaregiverLoad(Util.intSetting("CaregiverLoadDates", 1024));
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // by the Monday of the week
+    private final LinkedHashMap<LocalDate, Map<String, AtomicInteger>> weeks;
+    private final LinkedHashMap<Date, AtomicInteger> cursors;
+    // weeks spread over several shards that are being read in the background
+    private final Set<LocalDate> loading = new HashSet<>();
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "caregiver-load");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public CaregiverLoad(int maxEntries) {
+        this.weeks = lru(maxEntries);
+        this.cursors = lru(maxEntries);
+    }
+
+    private static <K, V> LinkedHashMap<K, V> lru(int maxEntries) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public static CaregiverLoad getInstance() {
+        return INSTANCE;
+    }
+
+    // The number of appointments the caregiver has in the week of the date, 0 while the week
+    // is not loaded
+    public int load(Date d, String caregiver) {
+        Map<String, AtomicInteger> counts = loaded(monday(d));
+        AtomicInteger count = counts == null ? null : counts.get(caregiver);
+        return count == null ? 0 : count.get();
+    }
+
+    // A different number on every call for the same date
+    public int nextTurn(Date d) {
+        AtomicInteger cursor;
+        lock.lock();
+        try {
+            cursor = cursors.computeIfAbsent(d, k -> new AtomicInteger());
+        } finally {
+            lock.unlock();
+        }
+        return cursor.getAndIncrement() & Integer.MAX_VALUE;
+    }
+
+    // Starts reading the counts for the week of the date on another connection if they are not
+    // loaded yet; with no connection free they are read when the future is joined
+    // (QueryExecutor.join). A week spread over several shards is read in the background
+    // instead, and the returned future does not wait for it.
+    public CompletableFuture<Void> preload(Date d) {
+        LocalDate monday = monday(d);
+        if (loaded(monday) != null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        ShardRouter router = ShardRouter.getInstance();
+        List<Integer> shards = router.shardsFor(Date.valueOf(monday), Date.valueOf(monday.plusDays(6)), null);
+        if (shards.size() == 1) {
+            return router.getExecutor(shards.get(0)).supply(cm -> {
+                Map<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+                read(monday, cm, counts);
+                install(monday, counts);
+                return null;
+            });
+        }
+        lock.lock();
+        try {
+            if (!loading.add(monday)) {
+                return CompletableFuture.completedFuture(null);
+            }
+        } finally {
+            lock.unlock();
+        }
+        // the loader holds no other connection while it waits for one of each shard
+        loader.execute(() -> {
+            try {
+                Map<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+                for (int shard : shards) {
+                    ConnectionManager cm = new ConnectionManager(router.getPool(shard));
+                    try {
+                        read(monday, cm, counts);
+                    } finally {
+                        cm.closeConnection();
+                    }
+                }
+                install(monday, counts);
+            } catch (SQLException e) {
+                // left empty, the next preload tries again
+                e.printStackTrace();
+            } finally {
+                lock.lock();
+                try {
+                    loading.remove(monday);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+        return CompletableFuture.completedFuture(null);
+    }
+
+    // Counts an appointment that was just committed
+    public void booked(Date d, String caregiver) {
+        Map<String, AtomicInteger> counts = loaded(monday(d));
+        // a week that is not tracked yet will read this appointment from the table
+        if (counts != null) {
+            counts.computeIfAbsent(caregiver, k -> new AtomicInteger()).incrementAndGet();
+        }
+    }
+
+    private static LocalDate monday(Date d) {
+        return d.toLocalDate().with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+    }
+
+    private Map<String, AtomicInteger> loaded(LocalDate monday) {
+        lock.lock();
+        try {
+            return weeks.get(monday);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void install(LocalDate monday, Map<String, AtomicInteger> counts) {
+        lock.lock();
+        try {
+            // whoever loaded the week first wins, their counts may already have moved on
+            weeks.putIfAbsent(monday, counts);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void read(LocalDate monday, ConnectionManager cm, Map<String, AtomicInteger> counts)
+            throws SQLException {
+        String countAppointments = "SELECT c_username, COUNT(*) AS Booked FROM Appointments " +
+                                   "WHERE Time >= ? AND Time < ? GROUP BY c_username";
+        PreparedStatement statement = cm.prepareStatement(countAppointments);
+        statement.setDate(1, Date.valueOf(monday));
+        statement.setDate(2, Date.valueOf(monday.plusDays(7)));
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                counts.computeIfAbsent(resultSet.getString("c_username"), k -> new AtomicInteger())
+                        .addAndGet(resultSet.getInt("Booked"));
+            }
+        }
+    }
+}
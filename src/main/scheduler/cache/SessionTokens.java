@@ -0,0 +1,150 @@
+package scheduler.cache;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.util.Util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Session tokens handed out at login, so that a client can log back in with resume <token>
+// without another credential lookup and password hash.
+//
+// A token is a random bearer secret that stands for the user it was issued to. It expires
+// idleMillis after it was issued or last resumed, and absolutely maxAgeMillis after it was
+// issued, however often it is used; logging out revokes it straight away. At most
+// maxEntries tokens are kept; beyond that the least recently used one is dropped, so a
+// flood of logins costs memory once rather than forever.
+// Tokens live only in this process and are gone after a restart.
+public class SessionTokens {
+
+    private static final SessionTokens INSTANCE = new SessionTokens(
+            Util.intSetting("SessionTokens", 10000),
+            Util.intSetting("SessionIdleSeconds", 900) * 1000L,
+            Util.intSetting("SessionMaxSeconds", 8 * 3600) * 1000L);
+
+    private final int maxEntries;
+    private final long idleMillis;
+    private final long maxAgeMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // least recently used first
+    private final LinkedHashMap<String, Entry> entries;
+
+    public SessionTokens(int maxEntries, long idleMillis, long maxAgeMillis) {
+        this.maxEntries = maxEntries;
+        this.idleMillis = idleMillis;
+        this.maxAgeMillis = maxAgeMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > SessionTokens.this.maxEntries;
+            }
+        };
+    }
+
+    public static SessionTokens getInstance() {
+        return INSTANCE;
+    }
+
+    // A session that was resumed: exactly one of the two is not null
+    public static class Session {
+        private final Caregiver caregiver;
+        private final Patient patient;
+
+        private Session(Caregiver caregiver, Patient patient) {
+            this.caregiver = caregiver;
+            this.patient = patient;
+        }
+
+        public Caregiver getCaregiver() {
+            return caregiver;
+        }
+
+        public Patient getPatient() {
+            return patient;
+        }
+    }
+
+    public String issue(Caregiver caregiver) {
+        return issue(new Session(caregiver, null));
+    }
+
+    public String issue(Patient patient) {
+        return issue(new Session(null, patient));
+    }
+
+    // The session the token stands for, or null if it is unknown or has expired
+    public Session resume(String token) {
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            Entry entry = entries.get(token);
+            if (entry == null) {
+                return null;
+            }
+            if (isExpired(entry, now)) {
+                entries.remove(token);
+                return null;
+            }
+            entry.lastUsed = now;
+            return entry.session;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Makes the token unusable, e.g. at logout; unknown tokens are ignored
+    public void revoke(String token) {
+        lock.lock();
+        try {
+            entries.remove(token);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String issue(Session session) {
+        String token = Util.generateToken();
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            removeExpired(now);
+            entries.put(token, new Entry(session, now));
+        } finally {
+            lock.unlock();
+        }
+        return token;
+    }
+
+    // Tokens idle the longest come first, so this stops at the first one still in use;
+    // tokens past their maximum age further in are dropped when they are next looked up
+    private void removeExpired(long now) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (!isExpired(entry, now)) {
+                return;
+            }
+            it.remove();
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.lastUsed >= idleMillis || now - entry.issuedAt >= maxAgeMillis;
+    }
+
+    private static class Entry {
+        private final Session session;
+        private final long issuedAt;
+        private long lastUsed;
+
+        private Entry(Session session, long issuedAt) {
+            this.session = session;
+            this.issuedAt = issuedAt;
+            this.lastUsed = issuedAt;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package scheduler.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// The free 15-minute slots of one caregiver on one day, one bit per slot (set = free).
+//
+// The layout matches the SlotAvailabilities table: slots 0-47 in the low word, 48-95 in the
+// high word. Claiming a slot is a compare-and-set that clears its bit, so two sessions in
+// this process can never claim the same slot, and finding the next free slot is a mask and
+// a trailing-zero count per word.
+public class SlotBitmap {
+
+    public static final int SLOT_MINUTES = 15;
+    public static final int SLOTS_PER_DAY = 24 * 60 / SLOT_MINUTES;
+    public static final int SLOTS_PER_WORD = SLOTS_PER_DAY / 2;
+
+    private final AtomicLongArray words = new AtomicLongArray(2);
+
+    public SlotBitmap(long low, long high) {
+        words.set(0, low);
+        words.set(1, high);
+    }
+
+    public long getWord(int word) {
+        return words.get(word);
+    }
+
+    public boolean isFree(int slot) {
+        return (words.get(slot / SLOTS_PER_WORD) & bit(slot)) != 0;
+    }
+
+    // The first free slot at or after from, -1 if there is none
+    public int nextFree(int from) {
+        for (int word = from / SLOTS_PER_WORD; word < 2; word++) {
+            long bits = words.get(word);
+            if (word == from / SLOTS_PER_WORD) {
+                bits &= -1L << (from % SLOTS_PER_WORD);
+            }
+            if (bits != 0) {
+                return word * SLOTS_PER_WORD + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return -1;
+    }
+
+    // Clears the slot's bit; false if it was not free
+    public boolean tryClaim(int slot) {
+        int word = slot / SLOTS_PER_WORD;
+        long bit = bit(slot);
+        while (true) {
+            long bits = words.get(word);
+            if ((bits & bit) == 0) {
+                return false;
+            }
+            if (words.compareAndSet(word, bits, bits & ~bit)) {
+                return true;
+            }
+        }
+    }
+
+    // Frees a slot claimed by tryClaim whose booking could not be completed
+    public void release(int slot) {
+        words.getAndAccumulate(slot / SLOTS_PER_WORD, bit(slot), (bits, bit) -> bits | bit);
+    }
+
+    // The free slots as "HH:MM-HH:MM" ranges separated by spaces, empty if there are none
+    public String freeRanges() {
+        StringBuilder ranges = new StringBuilder();
+        int start = nextFree(0);
+        while (start >= 0) {
+            int end = start;
+            while (end < SLOTS_PER_DAY && isFree(end)) {
+                end++;
+            }
+            if (ranges.length() > 0) {
+                ranges.append(' ');
+            }
+            ranges.append(format(start)).append('-').append(format(end));
+            start = end < SLOTS_PER_DAY ? nextFree(end) : -1;
+        }
+        return ranges.toString();
+    }
+
+    // The bit of the slot within its word
+    public static long bit(int slot) {
+        return 1L << (slot % SLOTS_PER_WORD);
+    }
+
+    // The bits of slots [from, to) that fall in the given word
+    public static long mask(int word, int from, int to) {
+        int lo = Math.max(from - word * SLOTS_PER_WORD, 0);
+        int hi = Math.min(to - word * SLOTS_PER_WORD, SLOTS_PER_WORD);
+        if (lo >= hi) {
+            return 0;
+        }
+        return (-1L << lo) & ((1L << hi) - 1);
+    }
+
+    // "HH:MM" on a slot boundary to a slot index, "24:00" is the end of the day;
+    // throws IllegalArgumentException otherwise
+    public static int parse(String time) {
+        String[] parts = time.split(":");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Not a time: " + time);
+        }
+        if (!isDigits(parts[0]) || parts[0].length() > 2 || !isDigits(parts[1]) || parts[1].length() != 2) {
+            throw new IllegalArgumentException("Not a time: " + time);
+        }
+        int hour = Integer.parseInt(parts[0]);
+        int minute = Integer.parseInt(parts[1]);
+        // checked separately, or 09:75 would be taken for 10:15
+        if (hour > 24 || minute >= 60 || (hour == 24 && minute != 0) || minute % SLOT_MINUTES != 0) {
+            throw new IllegalArgumentException("Not a slot time: " + time);
+        }
+        return (hour * 60 + minute) / SLOT_MINUTES;
+    }
+
+    private static boolean isDigits(String s) {
+        if (s.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static String format(int slot) {
+        int minutes = slot * SLOT_MINUTES;
+        return String.format("%02d:%02d", minutes / 60, minutes % 60);
+    }
+}
@@ -0,0 +1,143 @@
+package scheduler.cache;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.ShardRouter;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Read-through cache of every caregiver's slot bitmap on a date, the in-memory side of the
+// SlotAvailabilities table.
+//
+// Sessions claim slots on the cached bitmaps first, which keeps sessions in this process off
+// each other's slots, and then clear the same bit in the table, which is what actually books
+// it. A bitmap can only be behind the table where another process claimed or uploaded slots;
+// such a claim fails in the table, and the TTL bounds how long uploads stay invisible.
+// Evicted least-recently-used beyond maxEntries dates, like AvailabilityCache.
+public class SlotCache {
+
+    private static final SlotCache INSTANCE = new SlotCache(
+            Util.intSetting("SlotCacheSize", 1024),
+            Util.intSetting("SlotCacheTtlSeconds", 30) * 1000L);
+
+    private final int maxEntries;
+    private final long ttlMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Date, Entry> entries;
+    // bumped by every invalidation, so a load that raced with one is not cached
+    private long invalidations = 0;
+
+    public SlotCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Date, Entry> eldest) {
+                return size() > SlotCache.this.maxEntries;
+            }
+        };
+    }
+
+    public static SlotCache getInstance() {
+        return INSTANCE;
+    }
+
+    // The slot bitmaps of the caregivers with slots on the date, by username
+    public NavigableMap<String, SlotBitmap> get(Date d) throws SQLException {
+        long seen;
+        lock.lock();
+        try {
+            Entry entry = entries.get(d);
+            if (entry != null && System.currentTimeMillis() - entry.loadedAt < ttlMillis) {
+                return entry.bitmaps;
+            }
+            seen = invalidations;
+        } finally {
+            lock.unlock();
+        }
+
+        long loadedAt = System.currentTimeMillis();
+        NavigableMap<String, SlotBitmap> bitmaps = load(d);
+
+        lock.lock();
+        try {
+            if (seen != invalidations || ttlMillis <= 0 || maxEntries <= 0) {
+                return bitmaps;
+            }
+            // a session that loaded the date first may already be claiming on its bitmaps
+            Entry existing = entries.get(d);
+            if (existing != null && System.currentTimeMillis() - existing.loadedAt < ttlMillis) {
+                return existing.bitmaps;
+            }
+            entries.put(d, new Entry(bitmaps, loadedAt));
+        } finally {
+            lock.unlock();
+        }
+        return bitmaps;
+    }
+
+    public void invalidate(Date d) {
+        lock.lock();
+        try {
+            invalidations++;
+            entries.remove(d);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            invalidations++;
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static NavigableMap<String, SlotBitmap> load(Date d) throws SQLException {
+        // a caregiver with a whole-day appointment on the date has no slots to give out
+        String selectSlots = "SELECT Username, Slots_Low, Slots_High FROM SlotAvailabilities S WHERE Time = ? " +
+                "AND NOT EXISTS (SELECT 1 FROM Appointments P " +
+                "WHERE P.Time = S.Time AND P.c_username = S.Username AND P.Slot IS NULL)";
+        ShardRouter router = ShardRouter.getInstance();
+        TreeMap<String, SlotBitmap> bitmaps = new TreeMap<>();
+        for (int shard : router.shardsFor(d)) {
+            ConnectionManager cm = new ConnectionManager(router.getPool(shard));
+            try {
+                PreparedStatement statement = cm.prepareStatement(selectSlots);
+                statement.setDate(1, d);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        bitmaps.put(resultSet.getString("Username"),
+                                new SlotBitmap(resultSet.getLong("Slots_Low"), resultSet.getLong("Slots_High")));
+                    }
+                }
+            } finally {
+                cm.closeConnection();
+            }
+        }
+        return Collections.unmodifiableNavigableMap(bitmaps);
+    }
+
+    private static class Entry {
+        private final NavigableMap<String, SlotBitmap> bitmaps;
+        private final long loadedAt;
+
+        private Entry(NavigableMap<String, SlotBitmap> bitmaps, long loadedAt) {
+            this.bitmaps = bitmaps;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package scheduler.cache;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.ConnectionPool;
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// In-memory dose counts with write-behind to the Vaccines table.
+//
+// Every vaccine this process touches gets an atomic counter, loaded from the database on first
+// use. Reserving a dose is a compare-and-set on that counter (it never goes below zero), and
+// every change is also added to a per-vaccine pending delta. A background task writes the
+// deltas out as "Doses = Doses + ?" every InventoryFlushMillis, which is therefore the most
+// work that can be lost if the process dies.
+//
+// The counters are only authoritative while this is the only process changing doses, so the
+// inventory is off unless InventoryFlushMillis is set; with it off, doses are written through.
+public class VaccineInventory {
+
+    private static final VaccineInventory INSTANCE = create(Util.intSetting("InventoryFlushMillis", 0));
+
+    private final long flushMillis;
+    private final Map<String, AtomicInteger> doses = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    // one flush at a time, or two could both write the same pending delta
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private VaccineInventory(long flushMillis) {
+        this.flushMillis = flushMillis;
+        this.flusher = flushMillis <= 0 ? null : Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "vaccine-inventory-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // An inventory that flushes every flushMillis, or a disabled one if that is not positive.
+    // The flusher is only scheduled once the inventory is fully constructed.
+    public static VaccineInventory create(long flushMillis) {
+        VaccineInventory inventory = new VaccineInventory(flushMillis);
+        if (inventory.flusher != null) {
+            inventory.flusher.scheduleWithFixedDelay(inventory::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+            // write out whatever is left when the application shuts the pool down
+            ConnectionPool.getInstance().beforeClose(inventory::flushQuietly);
+        }
+        return inventory;
+    }
+
+    public static VaccineInventory getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return flushMillis > 0;
+    }
+
+    // Loads the counter of the vaccine if it is not loaded yet, so that tryReserve and release
+    // need no connection for it afterwards; false if there is no such vaccine. Callers that take
+    // doses while holding a connection call this before borrowing it.
+    public boolean load(String vaccineName) throws SQLException {
+        return counter(vaccineName) != null;
+    }
+
+    // Takes num doses if that many are left; returns false (and takes nothing) otherwise,
+    // including when the vaccine does not exist
+    public boolean tryReserve(String vaccineName, int num) throws SQLException {
+        AtomicInteger counter = counter(vaccineName);
+        if (counter == null) {
+            return false;
+        }
+        while (true) {
+            int available = counter.get();
+            if (available < num) {
+                return false;
+            }
+            if (counter.compareAndSet(available, available - num)) {
+                addPending(vaccineName, -num);
+                return true;
+            }
+        }
+    }
+
+    // Gives back doses taken by tryReserve, e.g. when the reservation could not be completed
+    public void release(String vaccineName, int num) throws SQLException {
+        add(vaccineName, num);
+    }
+
+    // Adds doses to an existing vaccine; they reach the database on the next flush. Throws
+    // IllegalArgumentException if there is no such vaccine, as the flush would have nowhere to
+    // write them.
+    public void add(String vaccineName, int num) throws SQLException {
+        AtomicInteger counter = counter(vaccineName);
+        if (counter == null) {
+            throw new IllegalArgumentException("No such vaccine: " + vaccineName);
+        }
+        counter.addAndGet(num);
+        addPending(vaccineName, num);
+    }
+
+    // Records doses that were written to the database directly by someone else in this process
+    public void addCommitted(String vaccineName, int num) {
+        AtomicInteger counter = doses.get(vaccineName);
+        if (counter != null) {
+            counter.addAndGet(num);
+        }
+    }
+
+    // The doses of the vaccine, given the Doses value just read from the table. A vaccine with a
+    // counter has its count right here; the table may be behind it, and a flush may commit
+    // between reading the table and reading the pending delta.
+    public int available(String vaccineName, int stored) {
+        AtomicInteger counter = doses.get(vaccineName);
+        if (counter != null) {
+            return counter.get();
+        }
+        AtomicInteger delta = pending.get(vaccineName);
+        return delta == null ? stored : stored + delta.get();
+    }
+
+    // Writes all pending deltas in one batch. A delta stays pending until its write has
+    // committed, and changes made meanwhile stay pending for the next flush.
+    public void flush() throws SQLException {
+        flushLock.lock();
+        try {
+            flushPending();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushPending() throws SQLException {
+        List<String> names = new ArrayList<>();
+        List<Integer> deltas = new ArrayList<>();
+        for (Map.Entry<String, AtomicInteger> entry : pending.entrySet()) {
+            int delta = entry.getValue().get();
+            if (delta != 0) {
+                names.add(entry.getKey());
+                deltas.add(delta);
+            }
+        }
+        if (names.isEmpty()) {
+            return;
+        }
+
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String applyDelta = "UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ?";
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement statement = cm.prepareStatement(applyDelta);
+            for (int i = 0; i < names.size(); i++) {
+                statement.setInt(1, deltas.get(i));
+                statement.setString(2, names.get(i));
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+        for (int i = 0; i < names.size(); i++) {
+            addPending(names.get(i), -deltas.get(i));
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException e) {
+            System.out.println("Could not write vaccine doses, will retry: " + e.getMessage());
+        }
+    }
+
+    private void addPending(String vaccineName, int delta) {
+        pending.computeIfAbsent(vaccineName, k -> new AtomicInteger()).addAndGet(delta);
+    }
+
+    // The counter for the vaccine, loaded from the database the first time; null if there is no such vaccine
+    private AtomicInteger counter(String vaccineName) throws SQLException {
+        AtomicInteger counter = doses.get(vaccineName);
+        if (counter != null) {
+            return counter;
+        }
+
+        ConnectionManager cm = new ConnectionManager();
+
+        String getDoses = "SELECT Doses FROM Vaccines WHERE Name = ?";
+        try {
+            PreparedStatement statement = cm.prepareStatement(getDoses);
+            statement.setString(1, vaccineName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+                // if another thread loaded it meanwhile, keep theirs since it may already have moved
+                AtomicInteger loaded = new AtomicInteger(resultSet.getInt("Doses"));
+                AtomicInteger existing = doses.putIfAbsent(vaccineName, loaded);
+                return existing == null ? loaded : existing;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
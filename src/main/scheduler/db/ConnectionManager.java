@@ -1,41 +1,102 @@
 package scheduler.db;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
+// Borrows a connection from the shared ConnectionPool for the duration of one unit of work.
+// createConnection() borrows, closeConnection() hands the connection back to the pool
+// instead of closing it, so callers keep the same open/close shape they always had.
+//
+// Statements from prepareStatement() are cached on the connection and reused by later
+// borrowers: close the ResultSets they return, but never the statements themselves.
 public class ConnectionManager {
 
-    private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
-            ".database.windows.net:1433;database=" + System.getenv("DBName");
-    private final String userName = System.getenv("UserID");
-    private final String userPass = System.getenv("Password");
+    private ConnectionPool pool;
+    // where a read goes when the replica in pool cannot hand out a connection
+    private ConnectionPool primary = null;
 
-    private Connection con = null;
+    private PooledConnection con = null;
 
     public ConnectionManager() {
-        try {
-            Class.forName(driverName);
-        } catch (ClassNotFoundException e) {
-            System.out.println(e.toString());
+        this(ConnectionPool.getInstance());
+    }
+
+    public ConnectionManager(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    // Starts out with a connection that was already borrowed from the pool
+    ConnectionManager(ConnectionPool pool, PooledConnection con) {
+        this.pool = pool;
+        this.con = con;
+    }
+
+    // For a read of the home database that may be answered by its replica, see ReadRouting
+    public static ConnectionManager forReads() {
+        return forReads(ConnectionPool.getInstance());
+    }
+
+    // For a read of primary's data that may be answered by its replica
+    public static ConnectionManager forReads(ConnectionPool primary) {
+        ConnectionPool source = ReadRouting.getInstance().readPool(primary);
+        ConnectionManager cm = new ConnectionManager(source);
+        if (source != primary) {
+            cm.primary = primary;
         }
+        return cm;
     }
 
     public Connection createConnection() {
-        try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
-        } catch (SQLException e) {
-            e.printStackTrace();
+        if (con == null) {
+            try {
+                con = borrow();
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+        return con.getConnection();
+    }
+
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return borrowed().getStatements().prepare(sql);
+    }
+
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        return borrowed().getStatements().prepare(sql, autoGeneratedKeys);
+    }
+
+    public SqlDialect getDialect() {
+        return pool.getDialect();
+    }
+
+    private PooledConnection borrowed() throws SQLException {
+        if (con == null) {
+            con = borrow();
         }
         return con;
     }
 
-    public void closeConnection() {
+    private PooledConnection borrow() throws SQLException {
+        if (primary == null) {
+            return pool.borrow();
+        }
         try {
-            this.con.close();
+            return pool.borrow();
         } catch (SQLException e) {
-            e.printStackTrace();
+            ReadRouting.getInstance().unavailable(pool, e);
+            pool = primary;
+            primary = null;
+            return pool.borrow();
+        }
+    }
+
+    public void closeConnection() {
+        // safe to call more than once, only the first call returns the connection
+        if (con != null) {
+            pool.release(con);
+            con = null;
         }
     }
 }
@@ -0,0 +1,262 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// A bounded pool of database connections shared by every ConnectionManager.
+//
+// At most maxSize connections are borrowed at any time; borrowers wait up to borrowTimeout
+// for one to come back. Idle connections are kept on a LIFO stack so the warmest connection
+// is reused first, validated before being handed out if they have been idle for a while,
+// and closed by a background evictor once they have been idle longer than idleTimeout
+// (never dropping below minIdle).
+public class ConnectionPool {
+
+    // connections used more recently than this are assumed to be alive without a round-trip
+    private static final long VALIDATION_INTERVAL_MILLIS = 1000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final StorageBackend backend;
+
+    private final int maxSize;
+    private final int minIdle;
+    private final int statementCacheSize;
+    private final long idleTimeoutMillis;
+    private final long borrowTimeoutMillis;
+
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final ScheduledExecutorService evictor;
+    // work that still needs the database when the pool closes, e.g. flushing write-behind state
+    private final List<Runnable> closeTasks = new CopyOnWriteArrayList<>();
+    private volatile boolean closed = false;
+
+    public ConnectionPool(StorageBackend backend, int maxSize, int minIdle, long idleTimeoutMillis, long borrowTimeoutMillis,
+                          int statementCacheSize) {
+        if (maxSize <= 0 || minIdle < 0 || minIdle > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size!");
+        }
+        this.backend = backend;
+        this.maxSize = maxSize;
+        this.minIdle = minIdle;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(idleTimeoutMillis / 2, 1000);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+
+        initialize();
+        warmUp();
+    }
+
+    public static ConnectionPool getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // Borrow a connection, waiting up to borrowTimeout if all of them are in use.
+    // Every borrowed connection must be handed back with release().
+    PooledConnection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long started = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException("Timed out waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted waiting for a database connection");
+        }
+        return take(started);
+    }
+
+    // Borrow a connection only if one is free right now; null if all of them are in use
+    PooledConnection tryBorrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long started = System.nanoTime();
+        try {
+            // a zero timeout rather than tryAcquire(), which would jump ahead of waiting borrowers
+            if (!permits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted waiting for a database connection");
+        }
+        return take(started);
+    }
+
+    // Hands out an idle connection, or a new one, for a permit that was just acquired
+    private PooledConnection take(long started) throws SQLException {
+        try {
+            PooledConnection pc;
+            while ((pc = idle.pollFirst()) != null) {
+                if (isUsable(pc)) {
+                    pc.touch();
+                    Metrics.connectionAcquired(System.nanoTime() - started);
+                    return pc;
+                }
+                pc.closeQuietly();
+            }
+            pc = open();
+            Metrics.connectionAcquired(System.nanoTime() - started);
+            return pc;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    void release(PooledConnection pc) {
+        try {
+            if (closed || pc.getConnection().isClosed()) {
+                pc.closeQuietly();
+                return;
+            }
+            pc.reset();
+            pc.touch();
+            idle.offerFirst(pc);
+        } catch (SQLException e) {
+            // a connection that cannot be reset is not safe to hand to anyone else
+            pc.closeQuietly();
+        } finally {
+            permits.release();
+        }
+    }
+
+    public StorageBackend getBackend() {
+        return backend;
+    }
+
+    public SqlDialect getDialect() {
+        return backend.getDialect();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    // Runs the task when the pool is closed, before its connections go away
+    public void beforeClose(Runnable task) {
+        closeTasks.add(task);
+    }
+
+    public void close() {
+        for (Runnable task : closeTasks) {
+            task.run();
+        }
+        closed = true;
+        evictor.shutdownNow();
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            pc.closeQuietly();
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection con = backend.openConnection();
+        return new PooledConnection(con, statementCacheSize);
+    }
+
+    // Let the backend prepare the database (e.g. migrate the schema) on the first connection
+    private void initialize() {
+        try {
+            PooledConnection pc = open();
+            try {
+                backend.initialize(pc.getConnection());
+            } catch (SQLException e) {
+                pc.closeQuietly();
+                throw e;
+            }
+            idle.offerFirst(pc);
+        } catch (SQLException e) {
+            System.out.println("Could not initialize the " + backend.getName() + " database: " + e.getMessage());
+        }
+    }
+
+    private boolean isUsable(PooledConnection pc) {
+        if (System.currentTimeMillis() - pc.getLastUsed() < VALIDATION_INTERVAL_MILLIS) {
+            return true;
+        }
+        try {
+            return pc.getConnection().isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void warmUp() {
+        try {
+            while (!closed && idle.size() < minIdle && permits.tryAcquire()) {
+                try {
+                    idle.offerLast(open());
+                } finally {
+                    permits.release();
+                }
+            }
+        } catch (SQLException e) {
+            // the pool still works without warm connections, borrowers will open them on demand
+            System.out.println("Could not pre-open database connections: " + e.getMessage());
+        }
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        // the oldest connections sit at the tail of the stack
+        Iterator<PooledConnection> it = idle.descendingIterator();
+        while (it.hasNext() && idle.size() > minIdle) {
+            PooledConnection pc = it.next();
+            if (now - pc.getLastUsed() >= idleTimeoutMillis && idle.remove(pc)) {
+                pc.closeQuietly();
+            }
+        }
+        warmUp();
+    }
+
+    // A pool for the backend sized by the Pool* settings, closed when the JVM shuts down
+    static ConnectionPool fromSettings(StorageBackend backend) {
+        ConnectionPool pool = new ConnectionPool(backend,
+                Util.intSetting("PoolMaxSize", 10),
+                Util.intSetting("PoolMinIdle", 2),
+                Util.intSetting("PoolIdleTimeoutSeconds", 300) * 1000L,
+                Util.intSetting("PoolBorrowTimeoutSeconds", 30) * 1000L,
+                Util.intSetting("StatementCacheSize", 64));
+        Runtime.getRuntime().addShutdownHook(new Thread(pool::close, "connection-pool-shutdown"));
+        return pool;
+    }
+
+    private static class Holder {
+        private static final ConnectionPool INSTANCE = fromSettings(StorageBackends.fromEnvironment());
+    }
+}
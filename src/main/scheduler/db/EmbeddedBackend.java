@@ -0,0 +1,59 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+// An H2 database running inside the scheduler's own JVM, either purely in memory or in a
+// local file. H2 runs in SQL Server compatibility mode so the application SQL works unchanged,
+// and the schema is created by the migrations the first time the database is used.
+public class EmbeddedBackend implements StorageBackend {
+
+    private static final String DRIVER_NAME = "org.h2.Driver";
+    // the pool closes the database on shutdown (after flushing write-behind state), not H2 itself
+    private static final String OPTIONS = ";MODE=MSSQLServer;DATABASE_TO_UPPER=TRUE;LOCK_TIMEOUT=10000;DB_CLOSE_ON_EXIT=FALSE";
+
+    private final String name;
+    private final String connectionUrl;
+    private final SqlDialect dialect = new H2Dialect();
+
+    private EmbeddedBackend(String name, String connectionUrl) {
+        this.name = name;
+        this.connectionUrl = connectionUrl;
+        try {
+            Class.forName(DRIVER_NAME);
+        } catch (ClassNotFoundException e) {
+            System.out.println(e.toString());
+        }
+    }
+
+    // An in-memory database that lives as long as the JVM; backends with the same name share data
+    public static EmbeddedBackend inMemory(String dbName) {
+        return new EmbeddedBackend("h2:mem:" + dbName, "jdbc:h2:mem:" + dbName + OPTIONS + ";DB_CLOSE_DELAY=-1");
+    }
+
+    // A database persisted to <path>.mv.db
+    public static EmbeddedBackend onDisk(String path) {
+        return new EmbeddedBackend("h2:file:" + path, "jdbc:h2:file:" + path + OPTIONS);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public SqlDialect getDialect() {
+        return dialect;
+    }
+
+    @Override
+    public Connection openConnection() throws SQLException {
+        return DriverManager.getConnection(connectionUrl, "sa", "");
+    }
+
+    @Override
+    public void initialize(Connection con) throws SQLException {
+        Migrator.migrate(con, dialect);
+    }
+}
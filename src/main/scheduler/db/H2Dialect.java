@@ -0,0 +1,17 @@
+package scheduler.db;
+
+import java.util.regex.Pattern;
+
+public class H2Dialect implements SqlDialect {
+
+    private static final Pattern IDENTITY = Pattern.compile("IDENTITY\\s*\\(\\s*1\\s*,\\s*1\\s*\\)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern INCLUDE = Pattern.compile("\\)\\s*INCLUDE\\s*\\(", Pattern.CASE_INSENSITIVE);
+
+    @Override
+    public String translateDdl(String statement) {
+        // INT IDENTITY (1,1) -> INT GENERATED BY DEFAULT AS IDENTITY
+        String translated = IDENTITY.matcher(statement).replaceAll("GENERATED BY DEFAULT AS IDENTITY");
+        // H2 has no included columns, they become trailing key columns: (a, b) INCLUDE (c) -> (a, b, c)
+        return INCLUDE.matcher(translated).replaceAll(", ");
+    }
+}
@@ -0,0 +1,149 @@
+package scheduler.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Brings a database up to the current schema by applying numbered SQL scripts in order.
+//
+// The versions already applied are recorded in the SchemaVersion table, so every script runs
+// exactly once per database. A database created by hand from create.sql before migrations
+// existed is recognised as being at version 1. New schema changes go at the end of MIGRATIONS
+// as a new script under src/main/resources/migrations; applied scripts must never be edited.
+public class Migrator {
+
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "Create tables", "create.sql"),
+            new Migration(2, "Index appointments by patient and by caregiver", "migrations/V2__appointment_indexes.sql"),
+            new Migration(3, "Add 15-minute time slots", "migrations/V3__time_slots.sql"),
+            new Migration(4, "Add the waitlist", "migrations/V4__waitlist.sql"),
+            new Migration(5, "Index caregiver appointments by ID", "migrations/V5__caregiver_appointment_pages.sql")
+    );
+
+    private static final String VERSION_TABLE = "SchemaVersion";
+
+    public static void migrate(Connection con, SqlDialect dialect) throws SQLException {
+        Set<Integer> applied = appliedVersions(con);
+        for (Migration migration : MIGRATIONS) {
+            if (applied.contains(migration.version)) {
+                continue;
+            }
+            apply(con, dialect, migration);
+        }
+    }
+
+    public static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    private static void apply(Connection con, SqlDialect dialect, Migration migration) throws SQLException {
+        String script = readScript(migration.script);
+        boolean autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+        try (Statement statement = con.createStatement()) {
+            for (String ddl : script.split(";")) {
+                if (!ddl.isBlank()) {
+                    statement.execute(dialect.translateDdl(ddl.trim()));
+                }
+            }
+            record(con, migration);
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw new SQLException("Migration V" + migration.version + " (" + migration.description + ") failed", e);
+        } finally {
+            con.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static Set<Integer> appliedVersions(Connection con) throws SQLException {
+        Set<Integer> applied = new HashSet<>();
+        if (!tableExists(con, VERSION_TABLE)) {
+            try (Statement statement = con.createStatement()) {
+                statement.execute("CREATE TABLE " + VERSION_TABLE + " (" +
+                        "Version int PRIMARY KEY, " +
+                        "Description varchar(255), " +
+                        "Installed_On datetime)");
+            }
+            // tables created from create.sql before there were migrations
+            if (tableExists(con, "Caregivers")) {
+                record(con, MIGRATIONS.get(0));
+                applied.add(MIGRATIONS.get(0).version);
+            }
+            return applied;
+        }
+        try (Statement statement = con.createStatement()) {
+            ResultSet resultSet = statement.executeQuery("SELECT Version FROM " + VERSION_TABLE);
+            while (resultSet.next()) {
+                applied.add(resultSet.getInt("Version"));
+            }
+        }
+        return applied;
+    }
+
+    private static void record(Connection con, Migration migration) throws SQLException {
+        String addVersion = "INSERT INTO " + VERSION_TABLE + " (Version, Description, Installed_On) VALUES (?, ?, ?)";
+        try (PreparedStatement statement = con.prepareStatement(addVersion)) {
+            statement.setInt(1, migration.version);
+            statement.setString(2, migration.description);
+            statement.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+            statement.executeUpdate();
+        }
+    }
+
+    static boolean tableExists(Connection con, String table) throws SQLException {
+        // identifiers may be stored upper case, lower case or as written depending on the engine
+        for (String name : new String[]{table, table.toUpperCase(), table.toLowerCase()}) {
+            try (ResultSet tables = con.getMetaData().getTables(null, null, name, null)) {
+                if (tables.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Looks for a script on the classpath first (both with src/main/resources as a resource
+    // root and with src/main as the source root), then relative to the working directory
+    static String readScript(String name) throws SQLException {
+        for (String resource : new String[]{"/" + name, "/resources/" + name}) {
+            try (InputStream in = Migrator.class.getResourceAsStream(resource)) {
+                if (in != null) {
+                    return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                }
+            } catch (IOException e) {
+                throw new SQLException("Could not read " + resource, e);
+            }
+        }
+        Path path = Paths.get("src", "main", "resources", name);
+        try {
+            return Files.readString(path, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new SQLException("Could not find " + name + " on the classpath or at " + path, e);
+        }
+    }
+
+    private static class Migration {
+        private final int version;
+        private final String description;
+        private final String script;
+
+        private Migration(int version, String description, String script) {
+            this.version = version;
+            this.description = description;
+            this.script = script;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+// A physical connection owned by a ConnectionPool, plus the bookkeeping the pool needs
+// to decide whether it is still worth handing out and the statements prepared on it.
+class PooledConnection {
+    private final Connection connection;
+    private final StatementCache statements;
+    private long lastUsed;
+
+    PooledConnection(Connection connection, int statementCacheSize) {
+        this.connection = connection;
+        this.statements = new StatementCache(connection, statementCacheSize);
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    StatementCache getStatements() {
+        return statements;
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    void touch() {
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    // Put the connection back in the state a fresh borrower expects
+    void reset() throws SQLException {
+        statements.releaseUncached();
+        if (!connection.getAutoCommit()) {
+            connection.rollback();
+            connection.setAutoCommit(true);
+        }
+        connection.clearWarnings();
+    }
+
+    void closeQuietly() {
+        statements.closeAll();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // nothing useful to do, the connection is being thrown away
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Runs independent reads of one command at the same time, so the command waits for the
+// slowest of them instead of all of them in turn.
+//
+// A query gets its connection from the pool on the caller's thread, before anything else
+// happens, and only if one is free right now; it then runs on a worker thread. If the
+// pool is exhausted it is not started at all: it runs on the caller's thread when the caller
+// joins it, on a connection the caller already holds (join(future, cm)) or, if the caller
+// holds none, on one borrowed then (join(future)). So supply never waits for a connection,
+// a caller never waits for one while holding another (which, with every connection held by
+// such callers, would wait until the borrow timeout), and a saturated pool is not asked for
+// more concurrency than it has. Work started here is charged to the caller's command in Metrics.
+public class QueryExecutor {
+
+    @FunctionalInterface
+    public interface Query<T> {
+        // cm is borrowed for the query and handed back when it returns
+        T run(ConnectionManager cm) throws SQLException;
+    }
+
+    private final ConnectionPool pool;
+    private final ExecutorService workers;
+
+    public QueryExecutor(ConnectionPool pool) {
+        this.pool = pool;
+        // platform threads: sessions on virtual threads can pin every carrier inside the JDBC
+        // driver, and a query queued behind them would make its caller wait for all of them.
+        // A query always holds a connection, so there is never use for more workers than that.
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(pool.getMaxSize(), r -> {
+            Thread t = new Thread(r, "query-worker-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // The executor of the home shard, i.e. of ConnectionPool.getInstance()
+    public static QueryExecutor getInstance() {
+        return ShardRouter.getInstance().getExecutor(ShardRouter.HOME);
+    }
+
+    public <T> CompletableFuture<T> supply(Query<T> query) {
+        return supply(query, pool);
+    }
+
+    // Like supply, for a read that may be answered by the replica of the pool, see ReadRouting
+    public <T> CompletableFuture<T> supplyRead(Query<T> query) {
+        return supply(query, ReadRouting.getInstance().readPool(pool));
+    }
+
+    private <T> CompletableFuture<T> supply(Query<T> query, ConnectionPool source) {
+        PooledConnection con;
+        try {
+            con = source.tryBorrow();
+        } catch (SQLException e) {
+            if (source == pool) {
+                return CompletableFuture.failedFuture(e);
+            }
+            ReadRouting.getInstance().unavailable(source, e);
+            return supply(query, pool);
+        }
+        if (con == null) {
+            return new Deferred<>(query, pool, source != pool);
+        }
+        ConnectionManager cm = new ConnectionManager(source, con);
+        try {
+            return CompletableFuture.supplyAsync(Metrics.wrap(() -> run(query, cm)), workers);
+        } catch (RuntimeException e) {
+            cm.closeConnection();
+            throw e;
+        }
+    }
+
+    private static <T> T run(Query<T> query, ConnectionManager cm) {
+        try {
+            return query.run(cm);
+        } catch (SQLException e) {
+            throw new CompletionException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Waits for the query and returns its result, throwing what the query threw. A query that
+    // found no free connection runs now on one borrowed from its pool, so the caller must not
+    // hold a connection of that pool.
+    public static <T> T join(CompletableFuture<T> future) throws SQLException {
+        return join(future, null);
+    }
+
+    // Like join, but a query that found no free connection runs now on cm, which the caller
+    // holds and keeps: cm must be a connection of the query's pool
+    public static <T> T join(CompletableFuture<T> future, ConnectionManager cm) throws SQLException {
+        if (future instanceof Deferred) {
+            ((Deferred<?>) future).runInline(cm);
+        }
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    // A query that found no free connection, waiting for its caller to join it
+    private static class Deferred<T> extends CompletableFuture<T> {
+        private final Query<T> query;
+        private final ConnectionPool pool;
+        private final boolean read;
+        // not synchronized: a virtual thread waiting for a connection inside a monitor pins its carrier
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private Deferred(Query<T> query, ConnectionPool pool, boolean read) {
+            this.query = query;
+            this.pool = pool;
+            this.read = read;
+        }
+
+        private void runInline(ConnectionManager held) {
+            lock.lock();
+            try {
+                if (isDone()) {
+                    return;
+                }
+                if (held != null) {
+                    complete(query.run(held));
+                } else {
+                    complete(run(query, read ? ConnectionManager.forReads(pool) : new ConnectionManager(pool)));
+                }
+            } catch (SQLException e) {
+                completeExceptionally(e);
+            } catch (CompletionException e) {
+                completeExceptionally(e.getCause());
+            } catch (RuntimeException e) {
+                completeExceptionally(e);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
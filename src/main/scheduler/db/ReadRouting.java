@@ -0,0 +1,123 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Sends reads that can live with a slightly stale copy of the data to read replicas.
+//
+// The Replicas setting lists one replica backend per shard, in shard order, with an empty
+// entry for a shard without one, e.g.
+//   Replicas=sqlserver:readonly,,h2:file:/replicas/shard2
+// Only reads that ask for it (ConnectionManager.forReads, QueryExecutor.supplyRead) may go to a
+// replica, and only inside a read scope: Scheduler opens one for every command that does not
+// change data, unless its session changed data less than ReplicaLagMillis ago, so a session
+// always reads its own writes. Reads inside commands that change data, and cache fills (which
+// would keep a stale row long after the replica caught up), always go to the primary.
+//
+// A replica that cannot hand out a connection is left alone for ReplicaRetryMillis and its
+// reads go to the primary in the meantime.
+public class ReadRouting {
+
+    private static final ThreadLocal<Session> CURRENT = new ThreadLocal<>();
+
+    // the replica of each primary pool that has one
+    private final Map<ConnectionPool, Replica> replicas;
+    private final long lagNanos;
+    private final long retryMillis;
+
+    public ReadRouting(Map<ConnectionPool, ConnectionPool> replicas, long lagMillis, long retryMillis) {
+        Map<ConnectionPool, Replica> copy = new HashMap<>();
+        for (Map.Entry<ConnectionPool, ConnectionPool> entry : replicas.entrySet()) {
+            copy.put(entry.getKey(), new Replica(entry.getValue()));
+        }
+        this.replicas = copy;
+        this.lagNanos = lagMillis * 1_000_000L;
+        this.retryMillis = retryMillis;
+    }
+
+    public static ReadRouting getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // What one Scheduler session (and its forks) last did to the data
+    public static class Session {
+        private volatile long lastWrite;
+        private volatile boolean wrote = false;
+
+        // Call after the session changed data
+        public void wrote() {
+            lastWrite = System.nanoTime();
+            wrote = true;
+        }
+    }
+
+    // Lets the reads on this thread go to replicas on behalf of the session, until end()
+    public static void begin(Session session) {
+        CURRENT.set(session);
+    }
+
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    // The pool a read of primary's data should use on this thread right now
+    ConnectionPool readPool(ConnectionPool primary) {
+        Replica replica = replicas.get(primary);
+        if (replica == null || System.currentTimeMillis() < replica.downUntil) {
+            return primary;
+        }
+        Session session = CURRENT.get();
+        if (session == null || (session.wrote && System.nanoTime() - session.lastWrite < lagNanos)) {
+            return primary;
+        }
+        return replica.pool;
+    }
+
+    // The replica could not hand out a connection; use the primary instead for a while
+    void unavailable(ConnectionPool replicaPool, SQLException e) {
+        for (Replica replica : replicas.values()) {
+            if (replica.pool == replicaPool) {
+                if (System.currentTimeMillis() >= replica.downUntil) {
+                    System.out.println("Reading from the primary, " + replicaPool.getBackend().getName() +
+                                       " is unavailable: " + e.getMessage());
+                }
+                replica.downUntil = System.currentTimeMillis() + retryMillis;
+            }
+        }
+    }
+
+    private static class Replica {
+        private final ConnectionPool pool;
+        private volatile long downUntil = 0;
+
+        private Replica(ConnectionPool pool) {
+            this.pool = pool;
+        }
+    }
+
+    private static ReadRouting fromSettings() {
+        ShardRouter router = ShardRouter.getInstance();
+        List<String> specs = List.of(Util.stringSetting("Replicas", "").split(",", -1));
+        if (specs.size() > router.size()) {
+            throw new IllegalArgumentException("There are more replicas than shards!");
+        }
+        Map<ConnectionPool, ConnectionPool> replicas = new HashMap<>();
+        for (int shard = 0; shard < specs.size(); shard++) {
+            if (!specs.get(shard).isBlank()) {
+                replicas.put(router.getPool(shard),
+                        ConnectionPool.fromSettings(new ReplicaBackend(StorageBackends.fromSpec(specs.get(shard)))));
+            }
+        }
+        return new ReadRouting(replicas,
+                Util.intSetting("ReplicaLagMillis", 5000),
+                Util.intSetting("ReplicaRetryMillis", 10000));
+    }
+
+    private static class Holder {
+        private static final ReadRouting INSTANCE = fromSettings();
+    }
+}
@@ -0,0 +1,38 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+// A read-only copy of another database, kept up to date by the database's own replication.
+// Connections are marked read-only, and the schema is left alone: migrations run on the
+// primary and reach the replica the same way as the data.
+public class ReplicaBackend implements StorageBackend {
+
+    private final StorageBackend backend;
+
+    public ReplicaBackend(StorageBackend backend) {
+        this.backend = backend;
+    }
+
+    @Override
+    public String getName() {
+        return backend.getName() + " replica";
+    }
+
+    @Override
+    public SqlDialect getDialect() {
+        return backend.getDialect();
+    }
+
+    @Override
+    public Connection openConnection() throws SQLException {
+        Connection con = backend.openConnection();
+        try {
+            con.setReadOnly(true);
+        } catch (SQLException e) {
+            con.close();
+            throw e;
+        }
+        return con;
+    }
+}
@@ -0,0 +1,69 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Retries a unit of database work that failed only because of contention: a deadlock or a
+// serialization failure, i.e. the database rolled the transaction back so that another one
+// could go on. Attempts back off exponentially with full jitter (a random wait up to
+// BASE * 2^attempt, capped), so that transactions that collided once do not collide again
+// in lock step. Any other error is thrown straight away, including other transient ones: a
+// timed out lock wait or connection borrow means the database is already overloaded, and
+// retrying would only add to the load.
+//
+// The work must be safe to run again, i.e. a transaction that rolls back when it fails.
+public class Retries {
+
+    private static final int MAX_ATTEMPTS = Util.intSetting("RetryAttempts", 5);
+    private static final long BASE_BACKOFF_MILLIS = 5;
+    private static final long MAX_BACKOFF_MILLIS = 200;
+
+    // SQL Server error numbers: deadlock victim, snapshot isolation update conflict
+    private static final int SQLSERVER_DEADLOCK = 1205;
+    private static final int SQLSERVER_UPDATE_CONFLICT = 3960;
+
+    @FunctionalInterface
+    public interface SqlWork<T> {
+        T run() throws SQLException;
+    }
+
+    private Retries() {
+    }
+
+    public static <T> T withBackoff(SqlWork<T> work) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return work.run();
+            } catch (SQLException e) {
+                if (attempt >= MAX_ATTEMPTS || !isTransient(e)) {
+                    throw e;
+                }
+                backOff(attempt);
+            }
+        }
+    }
+
+    public static boolean isTransient(SQLException e) {
+        for (SQLException cause = e; cause != null; cause = cause.getNextException()) {
+            String state = cause.getSQLState();
+            if ("40001".equals(state) // serialization failure / deadlock
+                    || cause.getErrorCode() == SQLSERVER_DEADLOCK
+                    || cause.getErrorCode() == SQLSERVER_UPDATE_CONFLICT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void backOff(int attempt) throws SQLException {
+        long cap = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting to retry", e);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+// Spreads the date-keyed tables over several databases.
+//
+// Shard 0 is the database of the Backend setting, the one ConnectionPool.getInstance() talks
+// to; the Shards setting lists the backends of any further shards, e.g.
+//   Shards=h2:mem:shard1,h2:mem:shard2
+// Availabilities, SlotAvailabilities and Appointments are partitioned: a row lives on the
+// shard of its date and caregiver, chosen by ShardBy:
+//   date (default)  by date range. ShardBoundaries=2026-07-01,2027-01-01 puts dates before the
+//                   first boundary on shard 0, dates before the second on shard 1 and so on;
+//                   without boundaries every calendar month goes to the next shard in turn
+//   caregiver       by a hash of the caregiver's username, so a caregiver's dates stay together
+// Everything else (doses, the waitlist, schema versions) stays on shard 0, the home shard.
+// Patients, caregivers and vaccine names are also copied to every other shard, because the
+// partitioned tables refer to them.
+//
+// Lookups by date go to the shards that can hold the date (one when sharding by date, all
+// when sharding by caregiver), lookups that span dates go to every shard they may touch and
+// are merged by the caller. Appointment IDs are only unique per shard, so the shard is encoded
+// into the ID users see (see globalId). The shard settings decide where existing rows are,
+// they cannot be changed once there is data.
+public class ShardRouter {
+
+    public static final int HOME = 0;
+
+    private static final ShardRouter INSTANCE = fromSettings();
+
+    public enum Mode {
+        DATE, CAREGIVER
+    }
+
+    private final List<ConnectionPool> pools;
+    private final List<QueryExecutor> executors;
+    private final Mode mode;
+    private final List<LocalDate> boundaries;
+
+    public ShardRouter(List<ConnectionPool> pools, Mode mode, List<LocalDate> boundaries) {
+        if (pools.isEmpty()) {
+            throw new IllegalArgumentException("There must be at least one shard!");
+        }
+        if (!boundaries.isEmpty() && (mode != Mode.DATE || boundaries.size() != pools.size() - 1)) {
+            throw new IllegalArgumentException("There must be one date boundary less than there are shards!");
+        }
+        for (int i = 1; i < boundaries.size(); i++) {
+            if (!boundaries.get(i - 1).isBefore(boundaries.get(i))) {
+                throw new IllegalArgumentException("Shard boundaries must be in ascending order!");
+            }
+        }
+        this.pools = List.copyOf(pools);
+        this.mode = mode;
+        this.boundaries = List.copyOf(boundaries);
+        List<QueryExecutor> executors = new ArrayList<>(pools.size());
+        for (ConnectionPool pool : pools) {
+            executors.add(new QueryExecutor(pool));
+        }
+        this.executors = List.copyOf(executors);
+    }
+
+    public static ShardRouter getInstance() {
+        return INSTANCE;
+    }
+
+    private static ShardRouter fromSettings() {
+        List<ConnectionPool> pools = new ArrayList<>();
+        pools.add(ConnectionPool.getInstance());
+        for (String spec : Util.stringSetting("Shards", "").split(",")) {
+            if (!spec.isBlank()) {
+                pools.add(ConnectionPool.fromSettings(StorageBackends.fromSpec(spec)));
+            }
+        }
+        Mode mode = Mode.valueOf(Util.stringSetting("ShardBy", "date").toUpperCase());
+        List<LocalDate> boundaries = new ArrayList<>();
+        for (String boundary : Util.stringSetting("ShardBoundaries", "").split(",")) {
+            if (!boundary.isBlank()) {
+                boundaries.add(LocalDate.parse(boundary.trim()));
+            }
+        }
+        return new ShardRouter(pools, mode, boundaries);
+    }
+
+    public int size() {
+        return pools.size();
+    }
+
+    public boolean isSharded() {
+        return pools.size() > 1;
+    }
+
+    public ConnectionPool getPool(int shard) {
+        return pools.get(shard);
+    }
+
+    // Runs independent reads on the shard, see QueryExecutor
+    public QueryExecutor getExecutor(int shard) {
+        return executors.get(shard);
+    }
+
+    // The shard that holds the rows of the caregiver on the date
+    public int shardOf(Date d, String caregiver) {
+        if (pools.size() == 1) {
+            return HOME;
+        }
+        return mode == Mode.CAREGIVER ? shardOf(caregiver) : shardOf(d.toLocalDate());
+    }
+
+    // The shards that can hold rows for the date
+    public List<Integer> shardsFor(Date d) {
+        return shardsFor(d, d, null);
+    }
+
+    // The shards that can hold rows between first and last (both inclusive) for the caregiver;
+    // any of them may be null for no restriction
+    public List<Integer> shardsFor(Date first, Date last, String caregiver) {
+        if (pools.size() == 1) {
+            return List.of(HOME);
+        }
+        if (mode == Mode.CAREGIVER) {
+            return caregiver != null ? List.of(shardOf(caregiver)) : all();
+        }
+        if (first == null || last == null) {
+            if (boundaries.isEmpty()) {
+                return all();
+            }
+            int from = first == null ? 0 : shardOf(first.toLocalDate());
+            int to = last == null ? pools.size() - 1 : shardOf(last.toLocalDate());
+            return range(from, to);
+        }
+        if (boundaries.isEmpty()) {
+            // consecutive months go to consecutive shards
+            long months = monthIndex(last.toLocalDate()) - monthIndex(first.toLocalDate()) + 1;
+            if (months >= pools.size()) {
+                return all();
+            }
+            List<Integer> shards = new ArrayList<>();
+            for (int i = 0; i < months; i++) {
+                shards.add(shardOf(first.toLocalDate().plusMonths(i)));
+            }
+            return shards;
+        }
+        return range(shardOf(first.toLocalDate()), shardOf(last.toLocalDate()));
+    }
+
+    // The ID users see for an appointment with the shard's own ID localId
+    public int globalId(int shard, int localId) {
+        return localId * pools.size() + shard;
+    }
+
+    public int shardOfId(int globalId) {
+        return Math.floorMod(globalId, pools.size());
+    }
+
+    // The largest ID on the shard whose global ID is at most globalId, for seeking past it
+    public int localIdAtMost(int shard, int globalId) {
+        return Math.floorDiv(globalId - shard, pools.size());
+    }
+
+    // Writes rows that every shard keeps a copy of to all shards but the home one, in one
+    // batch and transaction per shard, retrying contention (see Retries). sql must be
+    // idempotent, e.g. a MERGE that only inserts missing rows: callers write the copies before
+    // the home row, which is what decides whether the row exists, so a save that failed part
+    // way leaves copies ahead of the home shard, never behind it, and is repaired by simply
+    // running it again.
+    public void replicate(String sql, List<Object[]> rows) throws SQLException {
+        if (pools.size() == 1 || rows.isEmpty()) {
+            return;
+        }
+        for (int shard = 1; shard < pools.size(); shard++) {
+            ConnectionPool pool = pools.get(shard);
+            try {
+                Retries.withBackoff(() -> replicate(pool, sql, rows));
+            } catch (SQLException e) {
+                throw new SQLException("Could not copy rows to shard " + shard, e);
+            }
+        }
+    }
+
+    private static Void replicate(ConnectionPool pool, String sql, List<Object[]> rows) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(pool);
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement statement = cm.prepareStatement(sql);
+            for (Object[] row : rows) {
+                for (int i = 0; i < row.length; i++) {
+                    statement.setObject(i + 1, row[i]);
+                }
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            con.commit();
+            return null;
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private int shardOf(String caregiver) {
+        return Math.floorMod(caregiver.hashCode(), pools.size());
+    }
+
+    private int shardOf(LocalDate d) {
+        if (boundaries.isEmpty()) {
+            return (int) Math.floorMod(monthIndex(d), (long) pools.size());
+        }
+        int shard = 0;
+        while (shard < boundaries.size() && !d.isBefore(boundaries.get(shard))) {
+            shard++;
+        }
+        return shard;
+    }
+
+    private static long monthIndex(LocalDate d) {
+        return d.getYear() * 12L + d.getMonthValue() - 1;
+    }
+
+    private List<Integer> all() {
+        return range(0, pools.size() - 1);
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> shards = new ArrayList<>(to - from + 1);
+        for (int shard = from; shard <= to; shard++) {
+            shards.add(shard);
+        }
+        return shards;
+    }
+}
@@ -0,0 +1,9 @@
+package scheduler.db;
+
+// The handful of places where the SQL we send depends on the database engine.
+// Everything else in the application sticks to SQL that every backend understands.
+public interface SqlDialect {
+
+    // Rewrites one statement of a migration script (written for SQL Server) for this engine
+    String translateDdl(String statement);
+}
@@ -0,0 +1,69 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+// The hosted Azure SQL database named by the Server/DBName/UserID/Password environment variables
+public class SqlServerBackend implements StorageBackend {
+
+    private static final String DRIVER_NAME = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
+
+    private final String server;
+    private final String dbName;
+    private final boolean readOnlyIntent;
+    private final String connectionUrl;
+    private final String userName;
+    private final String userPass;
+    private final SqlDialect dialect = new SqlServerDialect();
+
+    public SqlServerBackend(String server, String dbName, String userName, String userPass) {
+        this(server, dbName, userName, userPass, false);
+    }
+
+    private SqlServerBackend(String server, String dbName, String userName, String userPass, boolean readOnlyIntent) {
+        this.server = server;
+        this.dbName = dbName;
+        this.readOnlyIntent = readOnlyIntent;
+        this.connectionUrl = "jdbc:sqlserver://" + server + ".database.windows.net:1433;database=" + dbName +
+                             (readOnlyIntent ? ";applicationIntent=ReadOnly" : "");
+        this.userName = userName;
+        this.userPass = userPass;
+        try {
+            Class.forName(DRIVER_NAME);
+        } catch (ClassNotFoundException e) {
+            System.out.println(e.toString());
+        }
+    }
+
+    public static SqlServerBackend fromEnvironment() {
+        return new SqlServerBackend(System.getenv("Server"), System.getenv("DBName"),
+                System.getenv("UserID"), System.getenv("Password"));
+    }
+
+    // The same database through its read scale-out replica, which Azure routes read-only
+    // connections to
+    public SqlServerBackend readOnlyIntent() {
+        return new SqlServerBackend(server, dbName, userName, userPass, true);
+    }
+
+    @Override
+    public String getName() {
+        return readOnlyIntent ? "sqlserver:readonly" : "sqlserver";
+    }
+
+    @Override
+    public SqlDialect getDialect() {
+        return dialect;
+    }
+
+    @Override
+    public Connection openConnection() throws SQLException {
+        return DriverManager.getConnection(connectionUrl, userName, userPass);
+    }
+
+    @Override
+    public void initialize(Connection con) throws SQLException {
+        Migrator.migrate(con, dialect);
+    }
+}
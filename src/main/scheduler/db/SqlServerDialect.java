@@ -0,0 +1,10 @@
+package scheduler.db;
+
+public class SqlServerDialect implements SqlDialect {
+
+    @Override
+    public String translateDdl(String statement) {
+        // migration scripts are written for SQL Server already
+        return statement;
+    }
+}
@@ -0,0 +1,96 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// The prepared statements of one pooled connection, keyed by SQL text.
+//
+// Re-preparing the same SQL on every command costs a parse (and on SQL Server a plan lookup)
+// every time; keeping the statements open lets the driver and server reuse them. The least
+// recently used statement is closed once more than maxSize are open. With maxSize 0 nothing is
+// kept, and the statements of a borrow are closed when the connection goes back to the pool.
+// Only the thread that has borrowed the connection uses its cache, so no locking is needed.
+class StatementCache {
+
+    private final Connection connection;
+    private final int maxSize;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+    // prepared during the current borrow without being cached
+    private final List<PreparedStatement> uncached = new ArrayList<>();
+
+    StatementCache(Connection connection, int maxSize) {
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > StatementCache.this.maxSize) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    PreparedStatement prepare(String sql) throws SQLException {
+        return prepare(sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "keys:" + sql : sql;
+        PreparedStatement statement = statements.get(key);
+        if (statement != null && !statement.isClosed()) {
+            // leave nothing behind from the previous use
+            statement.clearParameters();
+            statement.clearBatch();
+            if (statement.getMaxRows() != 0) {
+                statement.setMaxRows(0);
+            }
+            return statement;
+        }
+        statement = Metrics.instrument(connection.prepareStatement(sql, autoGeneratedKeys));
+        if (maxSize > 0) {
+            statements.put(key, statement);
+        } else {
+            uncached.add(statement);
+        }
+        return statement;
+    }
+
+    // Closes the statements that were not cached, once the borrower is done with them
+    void releaseUncached() {
+        for (PreparedStatement statement : uncached) {
+            closeQuietly(statement);
+        }
+        uncached.clear();
+    }
+
+    int size() {
+        return statements.size();
+    }
+
+    void closeAll() {
+        releaseUncached();
+        for (PreparedStatement statement : statements.values()) {
+            closeQuietly(statement);
+        }
+        statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // the statement is being thrown away either way
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+// Where the scheduler's data lives: knows how to open a physical connection to one database,
+// which SQL dialect that database speaks, and how to get it ready for first use.
+public interface StorageBackend {
+
+    String getName();
+
+    SqlDialect getDialect();
+
+    Connection openConnection() throws SQLException;
+
+    // Called once on the first connection a pool opens, before anyone else uses it,
+    // e.g. to bring the schema up to date
+    default void initialize(Connection con) throws SQLException {
+    }
+}
@@ -0,0 +1,31 @@
+package scheduler.db;
+
+// Picks the storage backend from the "Backend" setting (system property scheduler.backend,
+// or the Backend environment variable):
+//   sqlserver (default)  the Azure database from Server/DBName/UserID/Password
+//   sqlserver:readonly   the read scale-out replica of that database, for Replicas
+//   h2:mem[:<name>]      an in-memory embedded database
+//   h2:file:<path>       an embedded database stored on disk
+public class StorageBackends {
+
+    public static StorageBackend fromEnvironment() {
+        String spec = System.getProperty("scheduler.backend", System.getenv("Backend"));
+        return fromSpec(spec == null ? "sqlserver" : spec);
+    }
+
+    public static StorageBackend fromSpec(String spec) {
+        String s = spec.trim();
+        if (s.equalsIgnoreCase("sqlserver")) {
+            return SqlServerBackend.fromEnvironment();
+        } else if (s.equalsIgnoreCase("sqlserver:readonly")) {
+            return SqlServerBackend.fromEnvironment().readOnlyIntent();
+        } else if (s.equalsIgnoreCase("h2:mem")) {
+            return EmbeddedBackend.inMemory("scheduler");
+        } else if (s.startsWith("h2:mem:")) {
+            return EmbeddedBackend.inMemory(s.substring("h2:mem:".length()));
+        } else if (s.startsWith("h2:file:")) {
+            return EmbeddedBackend.onDisk(s.substring("h2:file:".length()));
+        }
+        throw new IllegalArgumentException("Unknown storage backend: " + spec);
+    }
+}
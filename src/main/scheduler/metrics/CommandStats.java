@@ -0,0 +1,96 @@
+package scheduler.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Everything measured for one command, summed over every session that ran it
+public class CommandStats implements CommandStatsMXBean {
+
+    private final String command;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder roundTrips = new LongAdder();
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder acquisitionNanos = new LongAdder();
+    private final LongAdder hashes = new LongAdder();
+    private final LongAdder hashNanos = new LongAdder();
+
+    CommandStats(String command) {
+        this.command = command;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    void roundTrip() {
+        roundTrips.increment();
+    }
+
+    void connectionAcquired(long waitNanos) {
+        acquisitions.increment();
+        acquisitionNanos.add(waitNanos);
+    }
+
+    void hashed(long nanos) {
+        hashes.increment();
+        hashNanos.add(nanos);
+    }
+
+    @Override
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getMeanMicros() {
+        return latency.getMeanNanos() / 1000;
+    }
+
+    @Override
+    public long getP50Micros() {
+        return latency.percentile(0.50) / 1000;
+    }
+
+    @Override
+    public long getP99Micros() {
+        return latency.percentile(0.99) / 1000;
+    }
+
+    @Override
+    public long getP999Micros() {
+        return latency.percentile(0.999) / 1000;
+    }
+
+    @Override
+    public long getMaxMicros() {
+        return latency.getMaxNanos() / 1000;
+    }
+
+    @Override
+    public long getDatabaseRoundTrips() {
+        return roundTrips.sum();
+    }
+
+    @Override
+    public long getConnectionAcquisitions() {
+        return acquisitions.sum();
+    }
+
+    @Override
+    public long getConnectionWaitMicros() {
+        return acquisitionNanos.sum() / 1000;
+    }
+
+    @Override
+    public long getHashes() {
+        return hashes.sum();
+    }
+
+    @Override
+    public long getHashMicros() {
+        return hashNanos.sum() / 1000;
+    }
+}
@@ -0,0 +1,28 @@
+package scheduler.metrics;
+
+// What JMX clients (jconsole, VisualVM, ...) see for one command, under
+// scheduler:type=Command,name=<command>. Latencies are in microseconds.
+public interface CommandStatsMXBean {
+
+    long getCount();
+
+    long getMeanMicros();
+
+    long getP50Micros();
+
+    long getP99Micros();
+
+    long getP999Micros();
+
+    long getMaxMicros();
+
+    long getDatabaseRoundTrips();
+
+    long getConnectionAcquisitions();
+
+    long getConnectionWaitMicros();
+
+    long getHashes();
+
+    long getHashMicros();
+}
@@ -0,0 +1,152 @@
+package scheduler.metrics;
+
+import scheduler.util.Util;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+// Per-command instrumentation: a latency histogram per command plus the database round-trips,
+// connection acquisitions and password hashing done while it ran.
+//
+// Scheduler.runCommand() marks the command a thread is running with begin()/end(); everything
+// recorded on that thread in between is charged to it, anything else goes to "(none)". Work
+// handed to another thread is charged by carrying the command over with wrap().
+//
+// Off unless Metrics=1. ENABLED is a constant, so with metrics off every hook is a branch the
+// JIT removes and statements are not wrapped at all. Each command is registered as a JMX MXBean
+// the first time it runs.
+public class Metrics {
+
+    public static final boolean ENABLED = Util.intSetting("Metrics", 0) != 0;
+
+    // unrecognised operation names all share one entry, so input cannot grow the registry
+    private static final int MAX_COMMANDS = 64;
+    private static final String NO_COMMAND = "(none)";
+    private static final String OTHER_COMMANDS = "(other)";
+
+    private static final Map<String, CommandStats> COMMANDS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<CommandStats> CURRENT = new ThreadLocal<>();
+
+    private Metrics() {
+    }
+
+    // Starts timing a command on this thread; pass the result to end()
+    public static long begin(String command) {
+        if (!ENABLED) {
+            return 0;
+        }
+        CURRENT.set(stats(command));
+        return System.nanoTime();
+    }
+
+    public static void end(long started) {
+        if (!ENABLED) {
+            return;
+        }
+        CommandStats stats = CURRENT.get();
+        if (stats != null) {
+            stats.getLatency().record(System.nanoTime() - started);
+            CURRENT.remove();
+        }
+    }
+
+    public static void roundTrip() {
+        if (ENABLED) {
+            current().roundTrip();
+        }
+    }
+
+    public static void connectionAcquired(long waitNanos) {
+        if (ENABLED) {
+            current().connectionAcquired(waitNanos);
+        }
+    }
+
+    public static void hashed(long nanos) {
+        if (ENABLED) {
+            current().hashed(nanos);
+        }
+    }
+
+    // Runs the task charged to the command of the thread that wrapped it
+    public static <T> Supplier<T> wrap(Supplier<T> task) {
+        if (!ENABLED) {
+            return task;
+        }
+        CommandStats owner = CURRENT.get();
+        return () -> {
+            CommandStats previous = CURRENT.get();
+            CURRENT.set(owner);
+            try {
+                return task.get();
+            } finally {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    // Counts every execution of the statement as a database round-trip
+    public static PreparedStatement instrument(PreparedStatement statement) {
+        if (!ENABLED) {
+            return statement;
+        }
+        return (PreparedStatement) Proxy.newProxyInstance(
+                PreparedStatement.class.getClassLoader(),
+                new Class<?>[] {PreparedStatement.class},
+                (proxy, method, args) -> {
+                    if (method.getName().startsWith("execute")) {
+                        roundTrip();
+                    }
+                    try {
+                        return method.invoke(statement, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    // A snapshot of every command seen so far, busiest first
+    public static List<CommandStats> snapshot() {
+        List<CommandStats> all = new ArrayList<>(COMMANDS.values());
+        all.sort(Comparator.comparingLong(CommandStats::getCount).reversed()
+                .thenComparing(CommandStats::getCommand));
+        return all;
+    }
+
+    private static CommandStats current() {
+        CommandStats stats = CURRENT.get();
+        return stats != null ? stats : stats(NO_COMMAND);
+    }
+
+    private static CommandStats stats(String command) {
+        CommandStats stats = COMMANDS.get(command);
+        if (stats != null) {
+            return stats;
+        }
+        if (COMMANDS.size() >= MAX_COMMANDS) {
+            command = OTHER_COMMANDS;
+        }
+        return COMMANDS.computeIfAbsent(command, Metrics::register);
+    }
+
+    private static CommandStats register(String command) {
+        CommandStats stats = new CommandStats(command);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(stats,
+                    new ObjectName("scheduler:type=Command,name=" + ObjectName.quote(command)));
+        } catch (JMException e) {
+            // still counted and shown by the stats command, just not visible over JMX
+        }
+        return stats;
+    }
+}
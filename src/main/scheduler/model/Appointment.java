@@ -0,0 +1,623 @@
+package scheduler.model;
+
+import scheduler.cache.AvailabilityCache;
+import scheduler.cache.CaregiverLoad;
+import scheduler.cache.SlotBitmap;
+import scheduler.cache.SlotCache;
+import scheduler.cache.VaccineInventory;
+import scheduler.db.ConnectionManager;
+import scheduler.db.QueryExecutor;
+import scheduler.db.Retries;
+import scheduler.db.ShardRouter;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class Appointment {
+    private final int appointmentId;
+    private final Date time;
+    private final String caregiverUsername;
+    private final String patientUsername;
+    private final String vaccineName;
+    private final int slot;
+
+    private Appointment(AppointmentReserver reserver) {
+        this.appointmentId = reserver.appointmentId;
+        this.time = reserver.time;
+        this.caregiverUsername = reserver.caregiverUsername;
+        this.patientUsername = reserver.patientUsername;
+        this.vaccineName = reserver.vaccineName;
+        this.slot = -1;
+    }
+
+    private Appointment(SlotReserver reserver) {
+        this.appointmentId = reserver.appointmentId;
+        this.time = reserver.time;
+        this.caregiverUsername = reserver.caregiverUsername;
+        this.patientUsername = reserver.patientUsername;
+        this.vaccineName = reserver.vaccineName;
+        this.slot = reserver.slot;
+    }
+
+    // Getters
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    public String getCaregiverUsername() {
+        return caregiverUsername;
+    }
+
+    public String getPatientUsername() {
+        return patientUsername;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    // The 15-minute slot booked, -1 for a whole-day appointment
+    public int getSlot() {
+        return slot;
+    }
+
+    // Loads what taking a dose of the vaccine needs, so that takeDose waits for no connection;
+    // false if there is no such vaccine. Called before a booking opens its transaction.
+    private static boolean prepareDoses(String vaccineName) throws SQLException {
+        VaccineInventory inventory = VaccineInventory.getInstance();
+        return !inventory.isEnabled() || inventory.load(vaccineName);
+    }
+
+    // Takes one dose as part of the caller's transaction on the home shard, or from the
+    // VaccineInventory when it is enabled; false if there is none left. vaccineKnown is what
+    // prepareDoses returned.
+    private static boolean takeDose(ConnectionManager home, String vaccineName, boolean vaccineKnown)
+            throws SQLException {
+        VaccineInventory inventory = VaccineInventory.getInstance();
+        if (inventory.isEnabled()) {
+            // the dose comes out of the in-memory inventory, which writes it out later
+            return vaccineKnown && inventory.tryReserve(vaccineName, 1);
+        }
+        String takeDose = "UPDATE Vaccines SET Doses = Doses - 1 WHERE Name = ? AND Doses > 0";
+        PreparedStatement take = home.prepareStatement(takeDose);
+        take.setString(1, vaccineName);
+        return take.executeUpdate() == 1;
+    }
+
+    // Gives back a dose taken by takeDose whose transaction rolled back; a dose taken in the
+    // table went back with the rollback
+    private static void returnDose(String vaccineName) throws SQLException {
+        VaccineInventory inventory = VaccineInventory.getInstance();
+        if (inventory.isEnabled()) {
+            inventory.release(vaccineName, 1);
+        }
+    }
+
+    // Removes a waitlist entry in the caller's transaction on the home shard; false if it is
+    // already gone. A negative waitlistId is no entry, which is always there.
+    private static boolean removeFromWaitlist(ConnectionManager home, int waitlistId) throws SQLException {
+        if (waitlistId < 0) {
+            return true;
+        }
+        String removeFromWaitlist = "DELETE FROM Waitlist WHERE Waitlist_ID = ?";
+        PreparedStatement remove = home.prepareStatement(removeFromWaitlist);
+        remove.setInt(1, waitlistId);
+        return remove.executeUpdate() == 1;
+    }
+
+    // Undoes a booking that was committed on a shard
+    private interface Cancellation {
+        void cancel() throws SQLException;
+    }
+
+    // The home part of a booking committed on another shard, claimed once that shard's
+    // connection has been given back: removes the waitlist entry (if waitlistId is one) and takes
+    // the dose, in a transaction of its own. If either cannot be done the booking is cancelled
+    // again; false if the entry was already gone, IllegalArgumentException if there was no dose.
+    private static boolean claimAtHome(int waitlistId, String vaccineName, boolean vaccineKnown, Cancellation booking)
+            throws SQLException {
+        ConnectionManager home = new ConnectionManager();
+        Connection con = home.createConnection();
+
+        boolean waiting = false;
+        boolean doseTaken = false;
+        SQLException failure = null;
+        try {
+            con.setAutoCommit(false);
+            waiting = removeFromWaitlist(home, waitlistId);
+            doseTaken = waiting && takeDose(home, vaccineName, vaccineKnown);
+            if (doseTaken) {
+                con.commit();
+                return true;
+            }
+            con.rollback();
+        } catch (SQLException e) {
+            con.rollback();
+            if (doseTaken) {
+                returnDose(vaccineName);
+            }
+            failure = e;
+        } finally {
+            home.closeConnection();
+        }
+
+        try {
+            booking.cancel();
+        } catch (SQLException e) {
+            if (failure == null) {
+                throw e;
+            }
+            failure.addSuppressed(e);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        if (!waiting) {
+            return false;
+        }
+        throw new IllegalArgumentException("Not enough available doses!");
+    }
+
+    // Inserts the appointment as part of the caller's transaction and returns its ID
+    private static int insert(ConnectionManager cm, Date time, String caregiverUsername, String patientUsername,
+                              String vaccineName, int slot) throws SQLException {
+        String addAppointment = slot < 0
+                ? "INSERT INTO Appointments (Time, c_username, p_username, v_name) VALUES (?, ?, ?, ?)"
+                : "INSERT INTO Appointments (Time, c_username, p_username, v_name, Slot) VALUES (?, ?, ?, ?, ?)";
+        PreparedStatement insert = cm.prepareStatement(addAppointment, Statement.RETURN_GENERATED_KEYS);
+        insert.setDate(1, time);
+        insert.setString(2, caregiverUsername);
+        insert.setString(3, patientUsername);
+        insert.setString(4, vaccineName);
+        if (slot >= 0) {
+            insert.setInt(5, slot);
+        }
+        insert.executeUpdate();
+        try (ResultSet keys = insert.getGeneratedKeys()) {
+            if (!keys.next()) {
+                throw new SQLException("No appointment ID was generated");
+            }
+            return keys.getInt(1);
+        }
+    }
+
+    // Books an appointment in a single transaction on a single connection:
+    //   1. read the caregivers still available on the date
+    //   2. claim one of them by deleting its availability row, trying them in the order the
+    //      AssignmentStrategy gives (a delete that hits no row means another patient got there
+    //      first, so move on to the next caregiver), then lock the caregiver's slots on the
+    //      date and give the availability back if one of them has been booked meanwhile
+    //   3. take a dose only if one is left (from the VaccineInventory when it is enabled)
+    //   4. insert the appointment and read its ID back from the generated keys
+    // Either everything commits or nothing does, so concurrent reservations can neither
+    // double-book a caregiver nor drive the dose count below zero. A transaction that fails on
+    // a deadlock or serialization failure is retried with backoff. When the date is spread over several
+    // shards (sharding by caregiver) they are tried one after the other, starting at a random one.
+    // Doses and the waitlist are on the home shard, so a booking on another shard is committed
+    // there first and its home part claimed afterwards, cancelling the booking if that fails.
+    public static class AppointmentReserver {
+        // caregivers available on the date and not booked on it yet, the NOT EXISTS probing
+        // IX_Appointments_Caregiver (c_username, Time, ...)
+        public static final String SELECT_CAREGIVERS =
+                "SELECT Username FROM Availabilities A WHERE Time = ? AND NOT EXISTS " +
+                "(SELECT 1 FROM Appointments P WHERE P.Time = A.Time AND P.c_username = A.Username) " +
+                "ORDER BY Username";
+
+        private final Date time;
+        private final String patientUsername;
+        private final String vaccineName;
+        private int appointmentId;
+        private String caregiverUsername;
+        private int waitlistId = -1;
+        // the waitlist entry was found already served
+        private boolean served;
+        private boolean vaccineKnown;
+
+        public AppointmentReserver(Date time, String patientUsername, String vaccineName) {
+            this.time = time;
+            this.patientUsername = patientUsername;
+            this.vaccineName = vaccineName;
+        }
+
+        // Books on behalf of a waitlist entry, which is removed along with the booking. If the
+        // entry is already gone (someone else served it) reserve() returns null.
+        AppointmentReserver fromWaitlist(int waitlistId) {
+            this.waitlistId = waitlistId;
+            return this;
+        }
+
+        // Returns null if no caregiver is available on the date,
+        // throws IllegalArgumentException if the vaccine has no doses left.
+        public Appointment reserve() throws SQLException {
+            return Retries.withBackoff(this::attempt);
+        }
+
+        private Appointment attempt() throws SQLException {
+            // nothing is held yet, so this may wait for a connection
+            this.vaccineKnown = prepareDoses(this.vaccineName);
+            // what the strategy needs to order the candidates does not depend on them, so it is
+            // read at the same time as they are
+            AssignmentStrategy strategy = AssignmentStrategy.getInstance();
+            CompletableFuture<Void> prepared = strategy.prepare(this.time);
+
+            List<Integer> shards = ShardRouter.getInstance().shardsFor(this.time);
+            int start = shards.size() == 1 ? 0 : ThreadLocalRandom.current().nextInt(shards.size());
+            for (int i = 0; i < shards.size(); i++) {
+                Appointment appointment = attempt(shards.get((start + i) % shards.size()), strategy, prepared);
+                if (appointment != null || this.served) {
+                    return appointment;
+                }
+            }
+            return null;
+        }
+
+        private Appointment attempt(int shard, AssignmentStrategy strategy, CompletableFuture<Void> prepared)
+                throws SQLException {
+            ShardRouter router = ShardRouter.getInstance();
+            boolean atHome = shard == ShardRouter.HOME;
+            ConnectionManager cm = new ConnectionManager(router.getPool(shard));
+            Connection con = cm.createConnection();
+
+            String claimAvailability = "DELETE FROM Availabilities WHERE Time = ? AND Username = ?";
+
+            String claimed = null;
+            int localId;
+            boolean doseTaken = false;
+            try {
+                con.setAutoCommit(false);
+
+                // the waitlist entry is removed first, so its row stays locked (nobody else can
+                // serve it) until the booking commits or rolls back
+                if (atHome && !removeFromWaitlist(cm, this.waitlistId)) {
+                    this.served = true;
+                    con.rollback();
+                    return null;
+                }
+
+                List<String> candidates = new ArrayList<>();
+                PreparedStatement select = cm.prepareStatement(SELECT_CAREGIVERS);
+                select.setDate(1, this.time);
+                try (ResultSet resultSet = select.executeQuery()) {
+                    while (resultSet.next()) {
+                        candidates.add(resultSet.getString("Username"));
+                    }
+                }
+
+                QueryExecutor.join(prepared, cm);
+                candidates = strategy.order(this.time, candidates);
+
+                PreparedStatement claim = cm.prepareStatement(claimAvailability);
+                for (String candidate : candidates) {
+                    claim.setDate(1, this.time);
+                    claim.setString(2, candidate);
+                    if (claim.executeUpdate() == 1) {
+                        if (hasSlotBookings(cm, candidate)) {
+                            // a slot was booked since the candidates were read
+                            giveBack(cm, candidate);
+                            continue;
+                        }
+                        claimed = candidate;
+                        break;
+                    }
+                }
+                if (claimed == null) {
+                    con.rollback();
+                    return null;
+                }
+
+                if (atHome) {
+                    doseTaken = takeDose(cm, this.vaccineName, this.vaccineKnown);
+                    if (!doseTaken) {
+                        con.rollback();
+                        throw new IllegalArgumentException("Not enough available doses!");
+                    }
+                }
+
+                localId = insert(cm, this.time, claimed, this.patientUsername, this.vaccineName, -1);
+
+                con.commit();
+            } catch (SQLException e) {
+                con.rollback();
+                if (doseTaken) {
+                    returnDose(this.vaccineName);
+                }
+                throw e;
+            } finally {
+                cm.closeConnection();
+            }
+
+            if (!atHome) {
+                String caregiver = claimed;
+                if (!claimAtHome(this.waitlistId, this.vaccineName, this.vaccineKnown,
+                        () -> cancel(shard, localId, caregiver))) {
+                    this.served = true;
+                    return null;
+                }
+            }
+            this.appointmentId = router.globalId(shard, localId);
+            AvailabilityCache.getInstance().invalidate(this.time);
+            // the caregiver's slots on the date are not on offer any more
+            SlotCache.getInstance().invalidate(this.time);
+            CaregiverLoad.getInstance().booked(this.time, claimed);
+            this.caregiverUsername = claimed;
+            return new Appointment(this);
+        }
+
+        // Locks the caregiver's slots on the date, if they have any, and tells whether any of them
+        // is booked. The availability row was locked by claiming it, and SlotReserver locks both
+        // rows too, in the same order, so the two cannot book the caregiver at once without one
+        // of them seeing the other's appointment.
+        private boolean hasSlotBookings(ConnectionManager cm, String caregiver) throws SQLException {
+            String lockSlots = "UPDATE SlotAvailabilities SET Slots_Low = Slots_Low WHERE Time = ? AND Username = ?";
+            String selectBooked = "SELECT 1 FROM Appointments WHERE Time = ? AND c_username = ? AND Slot IS NOT NULL";
+            PreparedStatement lock = cm.prepareStatement(lockSlots);
+            lock.setDate(1, this.time);
+            lock.setString(2, caregiver);
+            lock.executeUpdate();
+            PreparedStatement select = cm.prepareStatement(selectBooked);
+            select.setDate(1, this.time);
+            select.setString(2, caregiver);
+            try (ResultSet resultSet = select.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+
+        // Puts back an availability claimed in this transaction
+        private void giveBack(ConnectionManager cm, String caregiver) throws SQLException {
+            String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
+            PreparedStatement add = cm.prepareStatement(addAvailability);
+            add.setDate(1, this.time);
+            add.setString(2, caregiver);
+            add.executeUpdate();
+        }
+
+        // Undoes a booking committed on the shard: deletes the appointment and gives the
+        // caregiver their availability back
+        private void cancel(int shard, int localId, String caregiver) throws SQLException {
+            ConnectionManager cm = new ConnectionManager(ShardRouter.getInstance().getPool(shard));
+            Connection con = cm.createConnection();
+
+            String removeAppointment = "DELETE FROM Appointments WHERE Appointment_ID = ?";
+            String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
+            try {
+                con.setAutoCommit(false);
+                PreparedStatement remove = cm.prepareStatement(removeAppointment);
+                remove.setInt(1, localId);
+                remove.executeUpdate();
+                PreparedStatement add = cm.prepareStatement(addAvailability);
+                add.setDate(1, this.time);
+                add.setString(2, caregiver);
+                add.executeUpdate();
+                con.commit();
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            } finally {
+                cm.closeConnection();
+            }
+        }
+    }
+
+    // Books a 15-minute slot, either a given one or the earliest free one of any caregiver:
+    //   1. claim the slot on the cached bitmaps of the date (SlotCache), so no other session in
+    //      this process goes for it; among caregivers with the slot free the AssignmentStrategy
+    //      decides who is tried first
+    //   2. lock the caregiver's availability row, if any, clear the slot's bit in
+    //      SlotAvailabilities, which only succeeds while the bit is still set, and check that
+    //      the caregiver has no whole-day appointment on the date
+    //   3. take a dose and insert the appointment, in the same transaction as 2
+    // If the table says the slot is already taken (by another process) or the caregiver is
+    // booked for the day, the date is reloaded and the search starts over, at most
+    // MAX_CLAIM_ATTEMPTS times. Deadlocks and serialization failures are retried with backoff
+    // as for AppointmentReserver.
+    public static class SlotReserver {
+        private static final int MAX_CLAIM_ATTEMPTS = 16;
+
+        private final Date time;
+        private final int requestedSlot;
+        private final String patientUsername;
+        private final String vaccineName;
+        private int appointmentId;
+        private String caregiverUsername;
+        private int slot;
+        private boolean vaccineKnown;
+
+        // requestedSlot is a slot index, or -1 for the earliest free slot
+        public SlotReserver(Date time, int requestedSlot, String patientUsername, String vaccineName) {
+            if (requestedSlot < -1 || requestedSlot >= SlotBitmap.SLOTS_PER_DAY) {
+                throw new IllegalArgumentException("Not a slot: " + requestedSlot);
+            }
+            this.time = time;
+            this.requestedSlot = requestedSlot;
+            this.patientUsername = patientUsername;
+            this.vaccineName = vaccineName;
+        }
+
+        // Returns null if no caregiver has the slot (or any slot) free on the date,
+        // throws IllegalArgumentException if the vaccine has no doses left.
+        public Appointment reserve() throws SQLException {
+            return Retries.withBackoff(this::attempt);
+        }
+
+        private Appointment attempt() throws SQLException {
+            SlotCache slots = SlotCache.getInstance();
+            AssignmentStrategy strategy = AssignmentStrategy.getInstance();
+            // nothing is held yet, so these may wait for a connection
+            QueryExecutor.join(strategy.prepare(this.time));
+            this.vaccineKnown = prepareDoses(this.vaccineName);
+            for (int attempt = 0; attempt < MAX_CLAIM_ATTEMPTS; attempt++) {
+                String caregiver = null;
+                SlotBitmap bitmap = null;
+                int claimed = -1;
+                while (claimed < 0) {
+                    // the earliest free slot over all caregivers, and everyone who has it free
+                    Map<String, SlotBitmap> bitmaps = slots.get(this.time);
+                    int earliest = -1;
+                    List<String> tied = new ArrayList<>();
+                    for (Map.Entry<String, SlotBitmap> entry : bitmaps.entrySet()) {
+                        SlotBitmap candidate = entry.getValue();
+                        int free = this.requestedSlot >= 0
+                                ? (candidate.isFree(this.requestedSlot) ? this.requestedSlot : -1)
+                                : candidate.nextFree(0);
+                        if (free < 0 || (earliest >= 0 && free > earliest)) {
+                            continue;
+                        }
+                        if (free != earliest) {
+                            earliest = free;
+                            tied.clear();
+                        }
+                        tied.add(entry.getKey());
+                    }
+                    if (tied.isEmpty()) {
+                        return null;
+                    }
+                    for (String candidate : strategy.order(this.time, tied)) {
+                        if (bitmaps.get(candidate).tryClaim(earliest)) {
+                            caregiver = candidate;
+                            bitmap = bitmaps.get(candidate);
+                            claimed = earliest;
+                            break;
+                        }
+                    }
+                    // if another session here got them all first, look again
+                }
+
+                if (book(caregiver, bitmap, claimed)) {
+                    CaregiverLoad.getInstance().booked(this.time, caregiver);
+                    this.caregiverUsername = caregiver;
+                    this.slot = claimed;
+                    return new Appointment(this);
+                }
+                // the cached bitmaps were behind the table
+                slots.invalidate(this.time);
+            }
+            return null;
+        }
+
+        // Clears the slot in the table and books it; false if the table says it is not free or
+        // the caregiver has a whole-day appointment on the date.
+        // Doses are on the home shard, so on another shard the booking is committed first and the
+        // dose taken afterwards, cancelling the booking if there is none.
+        private boolean book(String caregiver, SlotBitmap bitmap, int slot) throws SQLException {
+            ShardRouter router = ShardRouter.getInstance();
+            int shard = router.shardOf(this.time, caregiver);
+            boolean atHome = shard == ShardRouter.HOME;
+            ConnectionManager cm = new ConnectionManager(router.getPool(shard));
+            Connection con = cm.createConnection();
+
+            String column = slot < SlotBitmap.SLOTS_PER_WORD ? "Slots_Low" : "Slots_High";
+            String claimSlot = "UPDATE SlotAvailabilities SET " + column + " = " + column + " - ? " +
+                    "WHERE Time = ? AND Username = ? AND (" + column + " / ?) % 2 = 1";
+            String lockAvailability = "UPDATE Availabilities SET Username = Username WHERE Time = ? AND Username = ?";
+            String selectWholeDay = "SELECT 1 FROM Appointments WHERE Time = ? AND c_username = ? AND Slot IS NULL";
+
+            int localId;
+            boolean doseTaken = false;
+            try {
+                con.setAutoCommit(false);
+
+                // the caregiver's whole-day availability first, in the order AppointmentReserver
+                // locks the two rows in
+                PreparedStatement lock = cm.prepareStatement(lockAvailability);
+                lock.setDate(1, this.time);
+                lock.setString(2, caregiver);
+                lock.executeUpdate();
+
+                PreparedStatement claim = cm.prepareStatement(claimSlot);
+                claim.setLong(1, SlotBitmap.bit(slot));
+                claim.setDate(2, this.time);
+                claim.setString(3, caregiver);
+                claim.setLong(4, SlotBitmap.bit(slot));
+                if (claim.executeUpdate() != 1) {
+                    con.rollback();
+                    return false;
+                }
+                // with both rows locked, a whole-day booking of the caregiver has committed or waits
+                PreparedStatement wholeDay = cm.prepareStatement(selectWholeDay);
+                wholeDay.setDate(1, this.time);
+                wholeDay.setString(2, caregiver);
+                try (ResultSet resultSet = wholeDay.executeQuery()) {
+                    if (resultSet.next()) {
+                        con.rollback();
+                        return false;
+                    }
+                }
+
+                if (atHome) {
+                    doseTaken = takeDose(cm, this.vaccineName, this.vaccineKnown);
+                    if (!doseTaken) {
+                        con.rollback();
+                        bitmap.release(slot);
+                        throw new IllegalArgumentException("Not enough available doses!");
+                    }
+                }
+
+                localId = insert(cm, this.time, caregiver, this.patientUsername, this.vaccineName, slot);
+                con.commit();
+            } catch (SQLException e) {
+                con.rollback();
+                bitmap.release(slot);
+                if (doseTaken) {
+                    returnDose(this.vaccineName);
+                }
+                throw e;
+            } finally {
+                cm.closeConnection();
+            }
+
+            if (!atHome) {
+                try {
+                    claimAtHome(-1, this.vaccineName, this.vaccineKnown, () -> cancel(shard, localId, caregiver, slot));
+                } catch (SQLException | RuntimeException e) {
+                    bitmap.release(slot);
+                    throw e;
+                }
+            }
+            this.appointmentId = router.globalId(shard, localId);
+            return true;
+        }
+
+        // Undoes a booking committed on the shard: deletes the appointment and frees the slot
+        // again, unless an upload has freed it meanwhile
+        private void cancel(int shard, int localId, String caregiver, int slot) throws SQLException {
+            ConnectionManager cm = new ConnectionManager(ShardRouter.getInstance().getPool(shard));
+            Connection con = cm.createConnection();
+
+            String column = slot < SlotBitmap.SLOTS_PER_WORD ? "Slots_Low" : "Slots_High";
+            String removeAppointment = "DELETE FROM Appointments WHERE Appointment_ID = ?";
+            String freeSlot = "UPDATE SlotAvailabilities SET " + column + " = " + column + " + ? " +
+                    "WHERE Time = ? AND Username = ? AND (" + column + " / ?) % 2 = 0";
+            try {
+                con.setAutoCommit(false);
+                PreparedStatement remove = cm.prepareStatement(removeAppointment);
+                remove.setInt(1, localId);
+                remove.executeUpdate();
+                PreparedStatement free = cm.prepareStatement(freeSlot);
+                free.setLong(1, SlotBitmap.bit(slot));
+                free.setDate(2, this.time);
+                free.setString(3, caregiver);
+                free.setLong(4, SlotBitmap.bit(slot));
+                free.executeUpdate();
+                con.commit();
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            } finally {
+                cm.closeConnection();
+            }
+        }
+    }
+}
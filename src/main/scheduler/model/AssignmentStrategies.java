@@ -0,0 +1,19 @@
+package scheduler.model;
+
+import scheduler.util.Util;
+
+// The AssignmentStrategy picked by the settings, created on first use
+final class AssignmentStrategies {
+
+    private AssignmentStrategies() {
+    }
+
+    static AssignmentStrategy configured() {
+        return Holder.INSTANCE;
+    }
+
+    private static class Holder {
+        private static final AssignmentStrategy INSTANCE =
+                AssignmentStrategy.fromName(Util.stringSetting("AssignmentStrategy", "least-loaded"));
+    }
+}
@@ -0,0 +1,126 @@
+package scheduler.model;
+
+import scheduler.cache.CaregiverLoad;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Decides which of the caregivers free on a date a new appointment goes to, by ordering them:
+// reservations try to claim them in that order and take the first claim that succeeds.
+//
+// Always claiming the alphabetically first caregiver makes every concurrent booking for a
+// date fight over the same row and piles the work onto one person; the other strategies
+// spread both. Chosen with AssignmentStrategy=least-loaded (default), round-robin, random
+// or alphabetical. order() itself never queries the database, as reserve calls it while it
+// holds the booking connection: whatever it needs is read by prepare().
+public interface AssignmentStrategy {
+
+    // caregivers is sorted by username; the result holds the same caregivers
+    List<String> order(Date date, List<String> caregivers);
+
+    // Starts reading whatever order() needs from the database for the date, if anything, so
+    // that it overlaps looking up the caregivers
+    default CompletableFuture<Void> prepare(Date date) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    static AssignmentStrategy getInstance() {
+        return AssignmentStrategies.configured();
+    }
+
+    static AssignmentStrategy fromName(String name) {
+        switch (name) {
+            case "least-loaded":
+                return new LeastLoaded(CaregiverLoad.getInstance());
+            case "round-robin":
+                return new RoundRobin(CaregiverLoad.getInstance());
+            case "random":
+                return new RandomWithRetry();
+            case "alphabetical":
+                return new Alphabetical();
+            default:
+                throw new IllegalArgumentException("Unknown assignment strategy: " + name);
+        }
+    }
+
+    // The caregivers rotated to start at position turn
+    private static List<String> rotate(List<String> caregivers, int turn) {
+        List<String> rotated = new ArrayList<>(caregivers);
+        if (!rotated.isEmpty()) {
+            Collections.rotate(rotated, -(turn % rotated.size()));
+        }
+        return rotated;
+    }
+
+    // Fewest appointments in the week of the date first (see CaregiverLoad); ties are rotated
+    // so concurrent bookings among equally loaded caregivers start at different rows
+    class LeastLoaded implements AssignmentStrategy {
+        private final CaregiverLoad load;
+
+        public LeastLoaded(CaregiverLoad load) {
+            this.load = load;
+        }
+
+        @Override
+        public CompletableFuture<Void> prepare(Date date) {
+            return load.preload(date);
+        }
+
+        @Override
+        public List<String> order(Date date, List<String> caregivers) {
+            List<String> ordered = rotate(caregivers, load.nextTurn(date));
+            List<Integer> loads = new ArrayList<>(ordered.size());
+            for (String caregiver : ordered) {
+                loads.add(load.load(date, caregiver));
+            }
+            List<Integer> positions = new ArrayList<>(ordered.size());
+            for (int i = 0; i < ordered.size(); i++) {
+                positions.add(i);
+            }
+            // stable, so equal loads keep their rotated order
+            positions.sort(Comparator.comparingInt(loads::get));
+            List<String> result = new ArrayList<>(ordered.size());
+            for (int position : positions) {
+                result.add(ordered.get(position));
+            }
+            return result;
+        }
+    }
+
+    // Every booking on a date starts one caregiver further along than the previous one
+    class RoundRobin implements AssignmentStrategy {
+        private final CaregiverLoad load;
+
+        public RoundRobin(CaregiverLoad load) {
+            this.load = load;
+        }
+
+        @Override
+        public List<String> order(Date date, List<String> caregivers) {
+            return rotate(caregivers, load.nextTurn(date));
+        }
+    }
+
+    // A random order; when a claim loses the race the next caregiver is tried
+    class RandomWithRetry implements AssignmentStrategy {
+        @Override
+        public List<String> order(Date date, List<String> caregivers) {
+            List<String> shuffled = new ArrayList<>(caregivers);
+            Collections.shuffle(shuffled, ThreadLocalRandom.current());
+            return shuffled;
+        }
+    }
+
+    // The original behaviour: always the first username
+    class Alphabetical implements AssignmentStrategy {
+        @Override
+        public List<String> order(Date date, List<String> caregivers) {
+            return caregivers;
+        }
+    }
+}
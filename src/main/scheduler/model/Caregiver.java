@@ -1,12 +1,30 @@
 package scheduler.model;
 
+import scheduler.cache.AvailabilityCache;
+import scheduler.cache.SlotBitmap;
+import scheduler.cache.SlotCache;
 import scheduler.db.ConnectionManager;
+import scheduler.db.ConnectionPool;
+import scheduler.db.ShardRouter;
+import scheduler.util.CredentialService;
 import scheduler.util.Util;
 
 import java.sql.*;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 public class Caregiver {
+    private static final int MAX_SLOT_UPLOAD_ATTEMPTS = 16;
+    // the copy of the user on another shard; inserts it only if a failed save did not already
+    private static final String COPY = "MERGE INTO Caregivers AS U " +
+            "USING (VALUES (CAST(? AS VARCHAR(255)), CAST(? AS BINARY(16)), CAST(? AS BINARY(16)))) " +
+            "AS S (Username, Salt, Hash) ON U.Username = S.Username " +
+            "WHEN NOT MATCHED THEN INSERT (Username, Salt, Hash) VALUES (S.Username, S.Salt, S.Hash);";
+
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
@@ -38,39 +56,214 @@ public class Caregiver {
 
     public void saveToDB() throws SQLException {
         ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
 
         String addCaregiver = "INSERT INTO Caregivers VALUES (? , ?, ?)";
         try {
-            PreparedStatement statement = con.prepareStatement(addCaregiver);
+            // availability and appointments on every shard refer to the caregiver; the copies go first, so the
+            // home row that makes the username taken only exists once they all do
+            ShardRouter.getInstance().replicate(COPY,
+                    List.<Object[]>of(new Object[] {this.username, this.salt, this.hash}));
+
+            PreparedStatement statement = cm.prepareStatement(addCaregiver);
             statement.setString(1, this.username);
             statement.setBytes(2, this.salt);
             statement.setBytes(3, this.hash);
             statement.executeUpdate();
         } catch (SQLException e) {
-            throw new SQLException();
+            throw new SQLException("Could not save caregiver " + this.username, e);
         } finally {
             cm.closeConnection();
         }
     }
 
     public void uploadAvailability(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        ConnectionManager cm = new ConnectionManager(shardPool(d));
 
         String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
         try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
+            PreparedStatement statement = cm.prepareStatement(addAvailability);
             statement.setDate(1, d);
             statement.setString(2, this.username);
             statement.executeUpdate();
+            AvailabilityCache.getInstance().invalidate(d);
+            WaitlistMatcher.getInstance().availabilityAdded(List.of(d));
+        } catch (SQLException e) {
+            throw new SQLException("Could not upload availability of " + this.username + " on " + d, e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Uploads availability for many dates at once: one connection, one transaction, one batch
+    // per shard the dates belong to. Dates the caregiver is already available on, including
+    // ones another upload adds meanwhile, are skipped rather than failing the batch, and are
+    // returned so the caller can report them.
+    public List<Date> uploadAvailability(List<Date> dates) throws SQLException {
+        ShardRouter router = ShardRouter.getInstance();
+        if (!router.isSharded()) {
+            return uploadAvailability(ConnectionPool.getInstance(), dates);
+        }
+        Map<Integer, List<Date>> byShard = new TreeMap<>();
+        for (Date d : dates) {
+            byShard.computeIfAbsent(router.shardOf(d, this.username), k -> new ArrayList<>()).add(d);
+        }
+        List<Date> conflicts = new ArrayList<>();
+        for (Map.Entry<Integer, List<Date>> shard : byShard.entrySet()) {
+            conflicts.addAll(uploadAvailability(router.getPool(shard.getKey()), shard.getValue()));
+        }
+        return conflicts;
+    }
+
+    private List<Date> uploadAvailability(ConnectionPool pool, List<Date> dates) throws SQLException {
+        List<Date> conflicts = new ArrayList<>();
+        if (dates.isEmpty()) {
+            return conflicts;
+        }
+
+        ConnectionManager cm = new ConnectionManager(pool);
+        Connection con = cm.createConnection();
+
+        // inserts the row only if it is not there yet, so an existing date updates 0 rows
+        String addAvailability = "MERGE INTO Availabilities AS A " +
+                "USING (VALUES (CAST(? AS DATE), CAST(? AS VARCHAR(255)))) AS S (Time, Username) " +
+                "ON A.Time = S.Time AND A.Username = S.Username " +
+                "WHEN NOT MATCHED THEN INSERT (Time, Username) VALUES (S.Time, S.Username);";
+        try {
+            con.setAutoCommit(false);
+
+            PreparedStatement insert = cm.prepareStatement(addAvailability);
+            List<Date> batched = new ArrayList<>();
+            Set<Date> seen = new HashSet<>();
+            for (Date d : dates) {
+                if (!seen.add(d)) {
+                    conflicts.add(d);
+                    continue;
+                }
+                insert.setDate(1, d);
+                insert.setString(2, this.username);
+                insert.addBatch();
+                batched.add(d);
+            }
+            int[] counts;
+            try {
+                counts = insert.executeBatch();
+            } catch (BatchUpdateException e) {
+                if (!Util.isDuplicateKey(e)) {
+                    throw e;
+                }
+                // another upload inserted one of the dates between the MERGE's check and its
+                // insert; the rows are tried again one at a time so only that date is given up
+                con.rollback();
+                insert.clearBatch();
+                counts = new int[batched.size()];
+                for (int i = 0; i < batched.size(); i++) {
+                    insert.setDate(1, batched.get(i));
+                    insert.setString(2, this.username);
+                    try {
+                        counts[i] = insert.executeUpdate();
+                    } catch (SQLException rowFailure) {
+                        if (!Util.isDuplicateKey(rowFailure)) {
+                            throw rowFailure;
+                        }
+                    }
+                }
+            }
+
+            for (int i = 0; i < batched.size(); i++) {
+                if (counts[i] == 0) {
+                    conflicts.add(batched.get(i));
+                }
+            }
+            con.commit();
+            AvailabilityCache.getInstance().invalidate(dates);
+            WaitlistMatcher.getInstance().availabilityAdded(dates);
+            return conflicts;
         } catch (SQLException e) {
-            throw new SQLException();
+            con.rollback();
+            throw e;
         } finally {
             cm.closeConnection();
         }
     }
 
+    // Frees the 15-minute slots [from, to) on the date, on top of any already free. Slots that
+    // are already booked stay booked. Patients may be clearing bits of the same row meanwhile,
+    // so the new bitmap is written with a compare-and-set on the old one and retried if it moved.
+    public void uploadSlots(Date d, int from, int to) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(shardPool(d));
+
+        String selectSlots = "SELECT Slots_Low, Slots_High FROM SlotAvailabilities WHERE Time = ? AND Username = ?";
+        String selectBooked = "SELECT Slot FROM Appointments WHERE c_username = ? AND Time = ? AND Slot IS NOT NULL";
+        // inserts the row only if nobody else has meanwhile; if they have, the next attempt updates it
+        String addSlots = "MERGE INTO SlotAvailabilities AS A " +
+                "USING (VALUES (CAST(? AS DATE), CAST(? AS VARCHAR(255)), CAST(? AS BIGINT), CAST(? AS BIGINT))) " +
+                "AS S (Time, Username, Slots_Low, Slots_High) ON A.Time = S.Time AND A.Username = S.Username " +
+                "WHEN NOT MATCHED THEN INSERT (Time, Username, Slots_Low, Slots_High) " +
+                "VALUES (S.Time, S.Username, S.Slots_Low, S.Slots_High);";
+        String updateSlots = "UPDATE SlotAvailabilities SET Slots_Low = ?, Slots_High = ? " +
+                "WHERE Time = ? AND Username = ? AND Slots_Low = ? AND Slots_High = ?";
+        try {
+            for (int attempt = 0; attempt < MAX_SLOT_UPLOAD_ATTEMPTS; attempt++) {
+                long[] current = null;
+                PreparedStatement select = cm.prepareStatement(selectSlots);
+                select.setDate(1, d);
+                select.setString(2, this.username);
+                try (ResultSet resultSet = select.executeQuery()) {
+                    if (resultSet.next()) {
+                        current = new long[]{resultSet.getLong("Slots_Low"), resultSet.getLong("Slots_High")};
+                    }
+                }
+
+                long[] booked = new long[2];
+                PreparedStatement selectAppointments = cm.prepareStatement(selectBooked);
+                selectAppointments.setString(1, this.username);
+                selectAppointments.setDate(2, d);
+                try (ResultSet resultSet = selectAppointments.executeQuery()) {
+                    while (resultSet.next()) {
+                        int slot = resultSet.getInt("Slot");
+                        booked[slot / SlotBitmap.SLOTS_PER_WORD] |= SlotBitmap.bit(slot);
+                    }
+                }
+
+                long[] updated = new long[2];
+                for (int word = 0; word < 2; word++) {
+                    long bits = current == null ? 0 : current[word];
+                    updated[word] = (bits | SlotBitmap.mask(word, from, to)) & ~booked[word];
+                }
+
+                PreparedStatement write;
+                if (current == null) {
+                    write = cm.prepareStatement(addSlots);
+                    write.setDate(1, d);
+                    write.setString(2, this.username);
+                    write.setLong(3, updated[0]);
+                    write.setLong(4, updated[1]);
+                } else {
+                    write = cm.prepareStatement(updateSlots);
+                    write.setLong(1, updated[0]);
+                    write.setLong(2, updated[1]);
+                    write.setDate(3, d);
+                    write.setString(4, this.username);
+                    write.setLong(5, current[0]);
+                    write.setLong(6, current[1]);
+                }
+                if (write.executeUpdate() == 1) {
+                    SlotCache.getInstance().invalidate(d);
+                    return;
+                }
+            }
+            throw new SQLException("Slots kept changing while uploading, try again");
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // The pool of the shard that holds this caregiver's rows for the date
+    private ConnectionPool shardPool(Date d) {
+        ShardRouter router = ShardRouter.getInstance();
+        return router.getPool(router.shardOf(d, this.username));
+    }
+
     public static class CaregiverBuilder {
         private final String username;
         private final byte[] salt;
@@ -99,35 +292,34 @@ public class Caregiver {
         }
 
         public Caregiver get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
+            ConnectionManager cm = ConnectionManager.forReads();
 
             String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?";
+            byte[] salt = null;
+            byte[] hash = null;
             try {
-                PreparedStatement statement = con.prepareStatement(getCaregiver);
+                PreparedStatement statement = cm.prepareStatement(getCaregiver);
                 statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Caregiver(this);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next()) {
+                        salt = resultSet.getBytes("Salt");
+                        // we need to call Util.trim() to get rid of the paddings,
+                        // try to remove the use of Util.trim() and you'll see :)
+                        hash = Util.trim(resultSet.getBytes("Hash"));
                     }
                 }
-                return null;
             } catch (SQLException e) {
                 throw new SQLException();
             } finally {
                 cm.closeConnection();
             }
+            // check if the password matches, without holding on to the connection while hashing
+            if (salt == null || !CredentialService.getInstance().verify(password, salt, hash)) {
+                return null;
+            }
+            this.salt = salt;
+            this.hash = hash;
+            return new Caregiver(this);
         }
     }
 }
@@ -1,19 +1,25 @@
 package scheduler.model;
 
 import scheduler.db.ConnectionManager;
+import scheduler.db.ShardRouter;
 
+import scheduler.util.CredentialService;
 import scheduler.util.Util;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
 
 import java.sql.*;
 
-import java.util.Arrays;
-
 public class Patient {
+    // the copy of the user on another shard; inserts it only if a failed save did not already
+    private static final String COPY = "MERGE INTO Patients AS U " +
+            "USING (VALUES (CAST(? AS VARCHAR(255)), CAST(? AS BINARY(16)), CAST(? AS BINARY(16)))) " +
+            "AS S (Username, Salt, Hash) ON U.Username = S.Username " +
+            "WHEN NOT MATCHED THEN INSERT (Username, Salt, Hash) VALUES (S.Username, S.Salt, S.Hash);";
+
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
@@ -44,22 +50,22 @@ public class Patient {
 
     public void saveToDB() throws SQLException {
         ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
 
         String addPatient = "INSERT INTO Patients VALUES (? , ?, ?)";
-
         try {
-            PreparedStatement statement = con.prepareStatement(addPatient);
+            // appointments on every shard refer to the patient; the copies go first, so the
+            // home row that makes the username taken only exists once they all do
+            ShardRouter.getInstance().replicate(COPY,
+                    List.<Object[]>of(new Object[] {this.username, this.salt, this.hash}));
 
+            PreparedStatement statement = cm.prepareStatement(addPatient);
             statement.setString(1, this.username);
             statement.setBytes(2, this.salt);
             statement.setBytes(3, this.hash);
             statement.executeUpdate();
-        } 
-        catch (SQLException e) {
-            throw new SQLException();
-        } 
-        finally {
+        } catch (SQLException e) {
+            throw new SQLException("Could not save patient " + this.username, e);
+        } finally {
             cm.closeConnection();
         }
     }
@@ -92,34 +98,24 @@ public class Patient {
         }
 
         public Patient get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
+            ConnectionManager cm = ConnectionManager.forReads();
 
             String getPatient = "SELECT Salt, Hash FROM Patients WHERE Username = ?";
 
-            try {
-                PreparedStatement statement = con.prepareStatement(getPatient);
+            byte[] salt = null;
+            byte[] hash = null;
 
+            try {
+                PreparedStatement statement = cm.prepareStatement(getPatient);
                 statement.setString(1, this.username);
 
-                ResultSet resultSet = statement.executeQuery();
-
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    byte[] calculatedHash = Util.generateHash(password, salt);
+                try (ResultSet resultSet = statement.executeQuery()) {
 
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } 
-                    else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Patient(this);
+                    if (resultSet.next()) {
+                        salt = resultSet.getBytes("Salt");
+                        hash = Util.trim(resultSet.getBytes("Hash"));
                     }
                 }
-
-                return null;
             } 
             catch (SQLException e) {
                 throw new SQLException();
@@ -127,6 +123,14 @@ public class Patient {
             finally {
                 cm.closeConnection();
             }
+
+            if (salt == null || !CredentialService.getInstance().verify(password, salt, hash)) {
+                return null;
+            }
+
+            this.salt = salt;
+            this.hash = hash;
+            return new Patient(this);
         }
     }
 }
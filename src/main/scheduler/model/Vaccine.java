@@ -1,13 +1,25 @@
 package scheduler.model;
 
+import scheduler.cache.VaccineInventory;
 import scheduler.db.ConnectionManager;
+import scheduler.db.Retries;
+import scheduler.db.ShardRouter;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class Vaccine {
+    // the copies on the other shards only need the name; inserted only if a failed save did not already
+    private static final String COPY_NAME = "MERGE INTO Vaccines AS V " +
+            "USING (VALUES (CAST(? AS VARCHAR(255)))) AS S (Name) ON V.Name = S.Name " +
+            "WHEN NOT MATCHED THEN INSERT (Name, Doses) VALUES (S.Name, 0);";
+
     private final String vaccineName;
     private int availableDoses;
 
@@ -32,16 +44,19 @@ public class Vaccine {
 
     public void saveToDB() throws SQLException {
         ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
 
         String addDoses = "INSERT INTO vaccines VALUES (?, ?)";
         try {
-            PreparedStatement statement = con.prepareStatement(addDoses);
+            // appointments on every shard refer to the vaccine, its doses are only counted here;
+            // the copies go first, so the vaccine only exists once they all do
+            ShardRouter.getInstance().replicate(COPY_NAME, List.<Object[]>of(new Object[] {this.vaccineName}));
+
+            PreparedStatement statement = cm.prepareStatement(addDoses);
             statement.setString(1, this.vaccineName);
             statement.setInt(2, this.availableDoses);
             statement.executeUpdate();
         } catch (SQLException e) {
-            throw new SQLException();
+            throw new SQLException("Could not save vaccine " + this.vaccineName, e);
         } finally {
             cm.closeConnection();
         }
@@ -54,15 +69,26 @@ public class Vaccine {
         }
         this.availableDoses += num;
 
+        VaccineInventory inventory = VaccineInventory.getInstance();
+        if (inventory.isEnabled()) {
+            // written out with the next inventory flush
+            inventory.add(this.vaccineName, num);
+            WaitlistMatcher.getInstance().dosesAdded(this.vaccineName);
+            return;
+        }
+
         ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
 
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
+        // add to what is in the table rather than overwrite it, so concurrent additions all count
+        String addAvailability = "UPDATE vaccines SET Doses = Doses + ? WHERE name = ?;";
         try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
+            Retries.withBackoff(() -> {
+                PreparedStatement statement = cm.prepareStatement(addAvailability);
+                statement.setInt(1, num);
+                statement.setString(2, this.vaccineName);
+                return statement.executeUpdate();
+            });
+            WaitlistMatcher.getInstance().dosesAdded(this.vaccineName);
         } catch (SQLException e) {
             throw new SQLException();
         } finally {
@@ -70,26 +96,39 @@ public class Vaccine {
         }
     }
 
-    // Decrement the available doses
+    // Decrement the available doses, only if at least num are left. The check and the decrement
+    // are one statement, so concurrent callers can never take the count below zero; contended
+    // updates are retried with backoff. Throws IllegalArgumentException if there are not enough.
     public void decreaseAvailableDoses(int num) throws SQLException {
-        if (this.availableDoses - num < 0) {
-            throw new IllegalArgumentException("Not enough available doses!");
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        VaccineInventory inventory = VaccineInventory.getInstance();
+        if (inventory.isEnabled()) {
+            if (!inventory.tryReserve(this.vaccineName, num)) {
+                throw new IllegalArgumentException("Not enough available doses!");
+            }
+            this.availableDoses -= num;
+            return;
         }
-        this.availableDoses -= num;
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
 
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
-        try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+        String removeAvailability = "UPDATE vaccines SET Doses = Doses - ? WHERE name = ? AND Doses >= ?;";
+        boolean decreased = Retries.withBackoff(() -> {
+            ConnectionManager cm = new ConnectionManager();
+            try {
+                PreparedStatement statement = cm.prepareStatement(removeAvailability);
+                statement.setInt(1, num);
+                statement.setString(2, this.vaccineName);
+                statement.setInt(3, num);
+                return statement.executeUpdate() == 1;
+            } finally {
+                cm.closeConnection();
+            }
+        });
+        if (!decreased) {
+            throw new IllegalArgumentException("Not enough available doses!");
         }
+        this.availableDoses -= num;
     }
 
     @Override
@@ -124,18 +163,19 @@ public class Vaccine {
 
         public Vaccine get() throws SQLException {
             ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
 
             String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
             try {
-                PreparedStatement statement = con.prepareStatement(getVaccine);
+                PreparedStatement statement = cm.prepareStatement(getVaccine);
                 statement.setString(1, this.vaccineName);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    this.availableDoses = resultSet.getInt("Doses");
-                    return new Vaccine(this);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        // include changes still waiting for the inventory to write them out
+                        this.availableDoses = VaccineInventory.getInstance().available(this.vaccineName, resultSet.getInt("Doses"));
+                        return new Vaccine(this);
+                    }
+                    return null;
                 }
-                return null;
             } catch (SQLException e) {
                 throw new SQLException();
             } finally {
@@ -143,5 +183,88 @@ public class Vaccine {
             }
         }
     }
-}
 
+    // Adds doses for many vaccines at once. Duplicate names are summed in memory and every
+    // chunkSize distinct vaccines are written as one batch of MERGE upserts in one transaction,
+    // so memory stays bounded by chunkSize however many lines are fed in.
+    public static class VaccineImporter {
+        private static final String MERGE_DOSES = "MERGE INTO Vaccines AS V " +
+                "USING (VALUES (CAST(? AS VARCHAR(255)), CAST(? AS INT))) AS S (Name, Doses) ON V.Name = S.Name " +
+                "WHEN MATCHED THEN UPDATE SET Doses = V.Doses + S.Doses " +
+                "WHEN NOT MATCHED THEN INSERT (Name, Doses) VALUES (S.Name, S.Doses);";
+
+        private final int chunkSize;
+        private final Map<String, Integer> pending = new LinkedHashMap<>();
+        private long totalDoses = 0;
+
+        public VaccineImporter(int chunkSize) {
+            if (chunkSize <= 0) {
+                throw new IllegalArgumentException("Chunk size must be positive!");
+            }
+            this.chunkSize = chunkSize;
+        }
+
+        public void add(String vaccineName, int doses) throws SQLException {
+            if (doses <= 0) {
+                throw new IllegalArgumentException("Argument cannot be negative!");
+            }
+            Integer current = pending.get(vaccineName);
+            if (current != null && current > Integer.MAX_VALUE - doses) {
+                // the running sum would overflow the column, write what we have first
+                flush();
+                current = null;
+            }
+            pending.put(vaccineName, current == null ? doses : current + doses);
+            totalDoses += doses;
+            if (pending.size() >= chunkSize) {
+                flush();
+            }
+        }
+
+        // Writes whatever is still pending, returns the number of doses added overall
+        public long finish() throws SQLException {
+            flush();
+            return totalDoses;
+        }
+
+        private void flush() throws SQLException {
+            if (pending.isEmpty()) {
+                return;
+            }
+            // appointments on every shard refer to the vaccines, so copy any new names first:
+            // a chunk that fails after this is repaired by importing it again
+            List<Object[]> names = new ArrayList<>(pending.size());
+            for (String name : pending.keySet()) {
+                names.add(new Object[] {name});
+            }
+            ShardRouter.getInstance().replicate(COPY_NAME, names);
+
+            ConnectionManager cm = new ConnectionManager();
+            Connection con = cm.createConnection();
+
+            try {
+                con.setAutoCommit(false);
+                PreparedStatement statement = cm.prepareStatement(MERGE_DOSES);
+                for (Map.Entry<String, Integer> entry : pending.entrySet()) {
+                    statement.setString(1, entry.getKey());
+                    statement.setInt(2, entry.getValue());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                con.commit();
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            } finally {
+                cm.closeConnection();
+            }
+
+            Map<String, Integer> written = new LinkedHashMap<>(pending);
+            pending.clear();
+            for (Map.Entry<String, Integer> entry : written.entrySet()) {
+                VaccineInventory.getInstance().addCommitted(entry.getKey(), entry.getValue());
+                WaitlistMatcher.getInstance().dosesAdded(entry.getKey());
+            }
+        }
+    }
+}
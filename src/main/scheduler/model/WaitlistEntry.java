@@ -0,0 +1,119 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionManager;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+// A patient waiting for an appointment on a date. Entries are served first come, first served
+// by the WaitlistMatcher, which removes an entry along with the booking: in the same transaction
+// when the appointment is on the home shard, and right after it (cancelling the booking if the
+// entry is gone) when it is on another shard.
+public class WaitlistEntry {
+    private final Date time;
+    private final String patientUsername;
+    private final String vaccineName;
+    private int waitlistId;
+
+    private WaitlistEntry(WaitlistEntryBuilder builder) {
+        this.time = builder.time;
+        this.patientUsername = builder.patientUsername;
+        this.vaccineName = builder.vaccineName;
+        this.waitlistId = builder.waitlistId;
+    }
+
+    // Getters
+    public int getWaitlistId() {
+        return waitlistId;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    public String getPatientUsername() {
+        return patientUsername;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    // Adds the entry; false if the patient is already waiting for an appointment on the date
+    public boolean saveToDB() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+
+        String addEntry = "INSERT INTO Waitlist (Time, p_username, v_name, Created_On) VALUES (?, ?, ?, ?)";
+        try {
+            PreparedStatement statement = cm.prepareStatement(addEntry, Statement.RETURN_GENERATED_KEYS);
+            statement.setDate(1, this.time);
+            statement.setString(2, this.patientUsername);
+            statement.setString(3, this.vaccineName);
+            statement.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+            try {
+                statement.executeUpdate();
+            } catch (SQLException e) {
+                // UQ_Waitlist_Patient
+                if (Util.isDuplicateKey(e)) {
+                    return false;
+                }
+                throw e;
+            }
+            try (ResultSet keys = statement.getGeneratedKeys()) {
+                if (!keys.next()) {
+                    throw new SQLException("No waitlist ID was generated");
+                }
+                this.waitlistId = keys.getInt(1);
+            }
+            return true;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // How many entries for the date are ahead of this one, plus one
+    public int position() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+
+        String countAhead = "SELECT COUNT(*) AS Ahead FROM Waitlist WHERE Time = ? AND Waitlist_ID <= ?";
+        try {
+            PreparedStatement statement = cm.prepareStatement(countAhead);
+            statement.setDate(1, this.time);
+            statement.setInt(2, this.waitlistId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getInt("Ahead");
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    public static class WaitlistEntryBuilder {
+        private final Date time;
+        private final String patientUsername;
+        private final String vaccineName;
+        private int waitlistId = -1;
+
+        public WaitlistEntryBuilder(Date time, String patientUsername, String vaccineName) {
+            this.time = time;
+            this.patientUsername = patientUsername;
+            this.vaccineName = vaccineName;
+        }
+
+        public WaitlistEntry build() {
+            return new WaitlistEntry(this);
+        }
+
+        // An entry that is already in the table
+        WaitlistEntry build(int waitlistId) {
+            this.waitlistId = waitlistId;
+            return new WaitlistEntry(this);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package scheduler.model;
+
+import scheduler.cache.AvailabilityCache;
+import scheduler.db.ConnectionManager;
+import scheduler.db.ConnectionPool;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Books appointments for waitlisted patients when something they were waiting for shows up.
+//
+// Uploading availability and adding doses only note what changed (a date, a vaccine) and
+// return. A single background thread then walks the waitlist of each affected date in
+// Waitlist_ID order, batchSize entries per query, and books each entry with an
+// AppointmentReserver that removes it from the waitlist along with the booking (see
+// WaitlistEntry for when that is not a single transaction). Triggers that
+// arrive while a pass is queued or running are merged into the next pass, so a burst of
+// uploads costs one walk per date instead of one per upload.
+//
+// An entry whose vaccine has run out is skipped for the rest of the pass, and a date is left
+// as soon as no caregiver is available on it. Entries stay in the table until they are
+// booked, so nothing is lost if the process stops; the next trigger for the date picks them up.
+// A date or vaccine that failed with an SQLException is queued for the next pass the same way.
+public class WaitlistMatcher {
+
+    private static final WaitlistMatcher INSTANCE = new WaitlistMatcher(Util.intSetting("WaitlistBatchSize", 50));
+
+    private final int batchSize;
+    private final Set<Date> pendingDates = ConcurrentHashMap.newKeySet();
+    private final Set<String> pendingVaccines = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final ExecutorService executor;
+
+    public WaitlistMatcher(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive!");
+        }
+        this.batchSize = batchSize;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "waitlist-matcher");
+            t.setDaemon(true);
+            return t;
+        });
+        // let a pass that is already queued finish before the pool goes away
+        ConnectionPool.getInstance().beforeClose(this::shutdown);
+    }
+
+    public static WaitlistMatcher getInstance() {
+        return INSTANCE;
+    }
+
+    // Caregivers became available on the dates
+    public void availabilityAdded(Collection<Date> dates) {
+        pendingDates.addAll(dates);
+        schedule();
+    }
+
+    // Doses of the vaccine were added
+    public void dosesAdded(String vaccineName) {
+        pendingVaccines.add(vaccineName);
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::run);
+        }
+    }
+
+    private void run() {
+        // cleared first, so a trigger that lands during the pass queues another one
+        scheduled.set(false);
+        Set<Date> dates = new HashSet<>(drain(pendingDates));
+        for (String vaccineName : drain(pendingVaccines)) {
+            try {
+                dates.addAll(waitingDates(vaccineName));
+            } catch (SQLException e) {
+                System.out.println("Could not match the waitlist for " + vaccineName + ": " + e.getMessage());
+                // tried again with the next trigger rather than right away
+                pendingVaccines.add(vaccineName);
+            }
+        }
+        // one date failing does not keep the others from being matched
+        for (Date d : dates) {
+            try {
+                match(d);
+            } catch (SQLException e) {
+                System.out.println("Could not match the waitlist for " + d + ": " + e.getMessage());
+                pendingDates.add(d);
+            }
+        }
+    }
+
+    // Books as many entries for the date as possible, oldest first; returns how many were booked
+    int match(Date d) throws SQLException {
+        Set<String> outOfDoses = new HashSet<>();
+        int booked = 0;
+        int after = 0;
+        while (true) {
+            List<WaitlistEntry> batch = nextBatch(d, after);
+            for (WaitlistEntry entry : batch) {
+                after = entry.getWaitlistId();
+                if (outOfDoses.contains(entry.getVaccineName())) {
+                    continue;
+                }
+                Appointment appointment;
+                try {
+                    appointment = new Appointment.AppointmentReserver(d, entry.getPatientUsername(), entry.getVaccineName())
+                            .fromWaitlist(entry.getWaitlistId())
+                            .reserve();
+                } catch (IllegalArgumentException e) {
+                    outOfDoses.add(entry.getVaccineName());
+                    continue;
+                }
+                if (appointment != null) {
+                    booked++;
+                } else if (AvailabilityCache.getInstance().get(d).isEmpty()) {
+                    // nobody left to book with; otherwise the entry was just served elsewhere
+                    return booked;
+                }
+            }
+            if (batch.size() < batchSize) {
+                return booked;
+            }
+        }
+    }
+
+    private List<WaitlistEntry> nextBatch(Date d, int after) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+
+        String selectEntries = "SELECT Waitlist_ID, p_username, v_name FROM Waitlist " +
+                "WHERE Time = ? AND Waitlist_ID > ? ORDER BY Waitlist_ID";
+        try {
+            PreparedStatement statement = cm.prepareStatement(selectEntries);
+            statement.setDate(1, d);
+            statement.setInt(2, after);
+            statement.setMaxRows(batchSize);
+            List<WaitlistEntry> batch = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    batch.add(new WaitlistEntry.WaitlistEntryBuilder(d, resultSet.getString("p_username"),
+                            resultSet.getString("v_name")).build(resultSet.getInt("Waitlist_ID")));
+                }
+            }
+            return batch;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private List<Date> waitingDates(String vaccineName) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+
+        String selectDates = "SELECT DISTINCT Time FROM Waitlist WHERE v_name = ?";
+        try {
+            PreparedStatement statement = cm.prepareStatement(selectDates);
+            statement.setString(1, vaccineName);
+            List<Date> dates = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    dates.add(resultSet.getDate("Time"));
+                }
+            }
+            return dates;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static <T> List<T> drain(Set<T> pending) {
+        List<T> drained = new ArrayList<>();
+        for (Iterator<T> it = pending.iterator(); it.hasNext(); ) {
+            drained.add(it.next());
+            it.remove();
+        }
+        return drained;
+    }
+
+    private void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
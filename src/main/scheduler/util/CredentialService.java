@@ -0,0 +1,80 @@
+package scheduler.util;
+
+import scheduler.metrics.Metrics;
+
+import java.security.MessageDigest;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs password hashing on a fixed pool with one worker per core.
+//
+// PBKDF2 is pure CPU work; running it on as many threads as there are callers only adds
+// context switching. Callers hand the work to the pool and wait, at most MAX_PENDING
+// requests are queued at a time (further callers block until there is room), and nobody
+// holds a database connection while a hash is being computed.
+public class CredentialService {
+
+    private static final int WORKERS = Runtime.getRuntime().availableProcessors();
+    private static final int MAX_PENDING = WORKERS * 64;
+
+    private static final CredentialService INSTANCE = new CredentialService();
+
+    private final ExecutorService workers;
+    private final Semaphore pending = new Semaphore(MAX_PENDING);
+
+    private CredentialService() {
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(WORKERS, r -> {
+            Thread t = new Thread(r, "credential-worker-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static CredentialService getInstance() {
+        return INSTANCE;
+    }
+
+    public CompletableFuture<byte[]> hashAsync(String password, byte[] salt) {
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+        try {
+            // hashing time is charged to the caller's command, not to the worker thread
+            return CompletableFuture.supplyAsync(Metrics.wrap(() -> Util.generateHash(password, salt)), workers)
+                    .whenComplete((hash, e) -> pending.release());
+        } catch (RuntimeException e) {
+            pending.release();
+            throw e;
+        }
+    }
+
+    public byte[] hash(String password, byte[] salt) {
+        return await(hashAsync(password, salt));
+    }
+
+    // Checks a password against a stored salt and hash. Both sides are trimmed since hashes come
+    // back from BINARY(16) columns zero padded (and a hash can legitimately end in a zero byte).
+    public boolean verify(String password, byte[] salt, byte[] expectedHash) {
+        byte[] calculatedHash = hash(password, salt);
+        return MessageDigest.isEqual(Util.trim(expectedHash), Util.trim(calculatedHash));
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
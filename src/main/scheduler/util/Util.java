@@ -1,12 +1,16 @@
 package scheduler.util;
 
+import scheduler.metrics.Metrics;
+
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
+import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.Base64;
 
 public class Util {
 
@@ -14,27 +18,44 @@ public class Util {
     private static final int HASH_STRENGTH = 10;
     private static final int KEY_LENGTH = 16;
 
+    // SecretKeyFactory and SecureRandom are expensive to look up and seed but not thread-safe
+    // to share, so every thread keeps its own
+    private static final ThreadLocal<SecretKeyFactory> KEY_FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException();
+        }
+    });
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
     public static byte[] generateSalt() {
         // Generate a random cryptographic salt
-        SecureRandom random = new SecureRandom();
         byte[] salt = new byte[16];
-        random.nextBytes(salt);
+        RANDOM.get().nextBytes(salt);
         return salt;
     }
 
+    public static String generateToken() {
+        // 256 random bits, printable and safe to paste back as one token
+        byte[] token = new byte[32];
+        RANDOM.get().nextBytes(token);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+    }
+
     public static byte[] generateHash(String password, byte[] salt) {
         // Specify the hash parameters
         KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, HASH_STRENGTH, KEY_LENGTH);
 
         // Generate the hash
-        SecretKeyFactory factory = null;
+        long started = System.nanoTime();
         byte[] hash = null;
         try {
-            factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-            hash = factory.generateSecret(spec).getEncoded();
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
+            hash = KEY_FACTORY.get().generateSecret(spec).getEncoded();
+        } catch (InvalidKeySpecException ex) {
             throw new IllegalStateException();
         }
+        Metrics.hashed(System.nanoTime() - started);
         return hash;
     }
 
@@ -48,4 +69,27 @@ public class Util {
 
         return Arrays.copyOf(bytes, i + 1);
     }
+
+    // Reads a numeric setting from a system property or, failing that, an environment variable
+    public static int intSetting(String name, int defaultValue) {
+        String value = System.getProperty(name, System.getenv(name));
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    // Reads a text setting the same way as intSetting
+    public static String stringSetting(String name, String defaultValue) {
+        String value = System.getProperty(name, System.getenv(name));
+        return value == null ? defaultValue : value.trim();
+    }
+
+    // True if the statement failed on a primary key or unique constraint: SQLState 23505, or
+    // SQL Server's errors 2627 and 2601, which only report the generic 23000
+    public static boolean isDuplicateKey(SQLException e) {
+        for (SQLException next = e; next != null; next = next.getNextException()) {
+            if ("23505".equals(next.getSQLState()) || next.getErrorCode() == 2627 || next.getErrorCode() == 2601) {
+                return true;
+            }
+        }
+        return false;
+    }
 }